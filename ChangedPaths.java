@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+// Append-only companion to the commit graph holding, for each commit in
+// graph order, a Bloom filter of the paths it changed relative to its first
+// parent and of the directories above them. A filter answers "no" for most
+// paths a commit did not touch, so a path's history is found by reading
+// only the commits whose filters answer "maybe". Commits that changed more
+// than MAX_PATHS paths get an empty entry, which answers "maybe" to all.
+public class ChangedPaths {
+    private static final String PATHS_FILE = ".gitlet/commit-graph-paths";
+    private static final int PATHS_MAGIC = 0x47435031; // "GCP1"
+    private static final int HEADER_SIZE = 4;
+    private static final int MAX_PATHS = 512;
+    private static final int BITS_PER_PATH = 10;
+    private static final int HASHES = 7;
+
+    private MappedByteBuffer filters;
+    // Offset of each complete entry: its length in bytes, then the filter.
+    private int[] offsets = new int[0];
+    private int count;
+
+    public ChangedPaths() {
+        map();
+    }
+
+    // Returns the number of commits with filters, which are the first ones
+    // in the commit graph.
+    public int size() {
+        return count;
+    }
+
+    // Returns false if the commit at graph position POS certainly did not
+    // change PATH or anything under it.
+    public boolean mayHaveChanged(int pos, String path) {
+        int start = offsets[pos];
+        int bytes = filters.getInt(start);
+        if (bytes == 0) {
+            return true;
+        }
+        for (int bit : bits(path, bytes * 8)) {
+            if ((filters.get(start + 4 + bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Appends the filter of PATHS for the commit at graph position POS, unless
+    // the filters do not reach up to it, in which case the commits in between
+    // must be filled in first.
+    public void append(int pos, Collection<String> paths) {
+        if (pos != count) {
+            return;
+        }
+        Set<String> keys = new HashSet<>();
+        for (String path : paths) {
+            int slash = path.length();
+            while (slash > 0) {
+                keys.add(path.substring(0, slash));
+                slash = path.lastIndexOf('/', slash - 1);
+            }
+        }
+        byte[] filter = new byte[keys.size() > MAX_PATHS ? 0
+                : Math.max(1, (keys.size() * BITS_PER_PATH + 7) / 8)];
+        for (String key : filter.length == 0 ? Set.<String>of() : keys) {
+            for (int bit : bits(key, filter.length * 8)) {
+                filter[bit / 8] |= 1 << (bit % 8);
+            }
+        }
+        ByteBuffer entry = ByteBuffer.allocate(4 + filter.length);
+        entry.putInt(filter.length).put(filter).flip();
+        int end = end();
+        try (FileChannel out = FileChannel.open(Paths.get(PATHS_FILE),
+                StandardOpenOption.WRITE)) {
+            // Drops what is left of an entry whose write was interrupted.
+            out.truncate(end);
+            out.write(entry, end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map();
+    }
+
+    // Deletes the filters, which are rebuilt as they are needed. They are
+    // indexed by graph position, so this must follow any rebuild of the
+    // commit graph.
+    public static void clear() {
+        new File(PATHS_FILE).delete();
+    }
+
+    // Returns the HASHES bits of a filter SIZE bits long that are set for KEY,
+    // found by double hashing.
+    private static int[] bits(String key, int size) {
+        int h1 = hash(key, 0x9747b28c);
+        int h2 = hash(key, 0x5bd1e995) | 1;
+        int[] result = new int[HASHES];
+        for (int i = 0; i < HASHES; i += 1) {
+            result[i] = Integer.remainderUnsigned(h1 + i * h2, size);
+        }
+        return result;
+    }
+
+    // A 32-bit MurmurHash3 of the characters of KEY, seeded with SEED.
+    private static int hash(String key, int seed) {
+        int h = seed;
+        for (int i = 0; i < key.length(); i += 1) {
+            int k = key.charAt(i) * 0xcc9e2d51;
+            k = Integer.rotateLeft(k, 15) * 0x1b873593;
+            h = Integer.rotateLeft(h ^ k, 13) * 5 + 0xe6546b64;
+        }
+        h ^= key.length();
+        h = (h ^ (h >>> 16)) * 0x85ebca6b;
+        h = (h ^ (h >>> 13)) * 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private void map() {
+        try {
+            if (!new File(PATHS_FILE).exists()) {
+                Files.write(Paths.get(PATHS_FILE),
+                        ByteBuffer.allocate(HEADER_SIZE).putInt(PATHS_MAGIC).array());
+            }
+            try (FileChannel in = FileChannel.open(Paths.get(PATHS_FILE))) {
+                filters = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (filters.capacity() < HEADER_SIZE || filters.getInt(0) != PATHS_MAGIC) {
+            throw new IllegalArgumentException("Corrupt changed-path filters.");
+        }
+        for (int pos = end(); pos + 4 <= filters.capacity() && filters.getInt(pos) >= 0
+                && pos + 4 + filters.getInt(pos) <= filters.capacity();
+                pos += 4 + filters.getInt(pos)) {
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(16, count * 2));
+            }
+            offsets[count] = pos;
+            count += 1;
+        }
+    }
+
+    // Returns the offset just past the last complete entry.
+    private int end() {
+        if (count == 0) {
+            return HEADER_SIZE;
+        }
+        return offsets[count - 1] + 4 + filters.getInt(offsets[count - 1]);
+    }
+}
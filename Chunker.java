@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.SplittableRandom;
+
+/**
+ * Content-defined chunking with the FastCDC Gear hash.  A chunk ends where
+ * the hash of the bytes just before it matches a mask, so boundaries move
+ * with the contents rather than with offsets: an edit in the middle of a
+ * file changes only the chunks around it, and the chunks before and after
+ * it are cut, and named, exactly as before.
+ */
+class Chunker {
+
+    /** Chunks are never shorter than this, except the last. */
+    static final int MIN_SIZE = 16 * 1024;
+    /** The size chunks are cut at on average. */
+    static final int AVG_SIZE = 64 * 1024;
+    /** Chunks are never longer than this. */
+    static final int MAX_SIZE = 256 * 1024;
+    /** Cut rarely before AVG_SIZE and often after it, so that chunk sizes
+     *  cluster around the average. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+    /** A random value for each byte, fixed so that every repository cuts
+     *  the same contents the same way. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6769746c6574L);
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Returns the length of the chunk starting at BUF[OFF], where LEN bytes
+     *  are available.  Unless LEN is at least MAX_SIZE, the caller must
+     *  have no more bytes to offer, as the chunk may otherwise end later. */
+    static int cut(byte[] buf, int off, int len) {
+        if (len <= MIN_SIZE) {
+            return len;
+        }
+        int end = Math.min(len, MAX_SIZE);
+        int normal = Math.min(end, AVG_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            hash = (hash << 1) + GEAR[buf[off + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+}
@@ -1,31 +1,149 @@
 package gitlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 
 public class Commit implements Serializable {
+    // Fixed so that commits written by Java serialization can still be migrated.
+    private static final long serialVersionUID = 1947518766907611653L;
+    private static final int FORMAT = 0x474c4301; // "GLC" version 1
+    private static final int TREE_FORMAT = 0x474c4302; // "GLC" version 2, with a tree
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
     private String ownHash;
     private String parentHash;
+    private String secondParentHash; // the merged-in branch, or null
     private String message;
     private String datetime;
-    private HashMap<String, String> blobs; // <fileName, SHA1>
+    // Fields of commits written by Java serialization, which migration reads.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("ownHash", String.class),
+        new ObjectStreamField("parentHash", String.class),
+        new ObjectStreamField("message", String.class),
+        new ObjectStreamField("datetime", String.class),
+        new ObjectStreamField("blobs", HashMap.class),
+    };
+
+    // <fileName, SHA1>. Commits written before trees hold every file here;
+    // for the others it is read from the tree when first asked for.
+    private FileMap blobs;
+    private String treeHash; // the root Tree, or null for commits without one
 
-    public Commit(String msg, HashMap<String, String> blobMap, String parent) {
+    public Commit(String msg, String tree, String parent) {
+        this(msg, tree, parent, null);
+    }
+
+    // Creates a merge commit when SECONDPARENT is not null.
+    public Commit(String msg, String tree, String parent, String secondParent) {
         LocalDateTime current = LocalDateTime.now();
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
         message = msg;
-        datetime = current.format(formatter);
-        blobs = blobMap;
+        datetime = current.format(DATE_FORMAT);
+        treeHash = tree;
         parentHash = parent;
+        secondParentHash = secondParent;
         ownHash = calcHash();
-        SerializeUtils.writeStringToFile(globalLog(), ".gitlet/global-log/gl.txt", true);
+    }
+
+    private Commit() {
     }
 
     public String calcHash() {
-        byte[] commitObj = SerializeUtils.toByteArray(this);
-        return Utils.sha1(commitObj);
+        return Utils.sha1(encodeBody());
+    }
+
+    // Returns the binary form of this commit: a format tag, its own hash and
+    // then the body that the hash is computed from.
+    public byte[] encode() {
+        byte[] body = encodeBody();
+        ByteBuffer out = ByteBuffer.allocate(24 + body.length);
+        out.putInt(treeHash == null ? FORMAT : TREE_FORMAT);
+        out.put(Utils.hexToBytes(ownHash)).put(body);
+        return out.array();
+    }
+
+    // Reads a commit written by encode.
+    public static Commit decode(ByteBuffer in) {
+        int format = in.getInt();
+        if (format != FORMAT && format != TREE_FORMAT) {
+            throw new IllegalArgumentException("Unknown commit format.");
+        }
+        Commit c = new Commit();
+        c.ownHash = SerializeUtils.readHash(in);
+        int parents = in.get();
+        if (parents >= 1) {
+            c.parentHash = SerializeUtils.readHash(in);
+        }
+        if (parents == 2) {
+            c.secondParentHash = SerializeUtils.readHash(in);
+        }
+        c.datetime = SerializeUtils.readString(in);
+        c.message = SerializeUtils.readString(in);
+        if (format == TREE_FORMAT) {
+            c.treeHash = SerializeUtils.readHash(in);
+            return c;
+        }
+        int count = in.getInt();
+        c.blobs = FileMap.EMPTY;
+        for (int i = 0; i < count; i += 1) {
+            String fileName = SerializeUtils.readString(in);
+            c.blobs = c.blobs.plus(fileName, SerializeUtils.readHash(in));
+        }
+        return c;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        ownHash = (String) fields.get("ownHash", null);
+        parentHash = (String) fields.get("parentHash", null);
+        message = (String) fields.get("message", null);
+        datetime = (String) fields.get("datetime", null);
+        blobs = FileMap.of((HashMap<String, String>) fields.get("blobs", null));
+    }
+
+    // Blobs are written in file name order so that equal commits hash equally.
+    // The body starts with the number of parents, so commits with at most one
+    // parent encode, and hash, as they did before merges recorded two.
+    // Commits with a tree end with its hash in place of the blobs.
+    private byte[] encodeBody() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                treeHash != null ? 128 : 64 + 64 * blobs.size());
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeByte(parentHash == null ? 0 : secondParentHash == null ? 1 : 2);
+            if (parentHash != null) {
+                SerializeUtils.writeHash(out, parentHash);
+            }
+            if (secondParentHash != null) {
+                SerializeUtils.writeHash(out, secondParentHash);
+            }
+            SerializeUtils.writeString(out, datetime);
+            SerializeUtils.writeString(out, message);
+            if (treeHash != null) {
+                SerializeUtils.writeHash(out, treeHash);
+                return bytes.toByteArray();
+            }
+            String[] fileNames = blobs.keys().toArray(new String[0]);
+            Arrays.sort(fileNames);
+            out.writeInt(fileNames.length);
+            for (String fileName : fileNames) {
+                SerializeUtils.writeString(out, fileName);
+                SerializeUtils.writeHash(out, blobs.get(fileName));
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Internal error encoding commit.");
+        }
+        return bytes.toByteArray();
     }
 
     public String getOwnHash() {
@@ -36,6 +154,10 @@ public class Commit implements Serializable {
         return parentHash;
     }
 
+    public String getSecondParentHash() {
+        return secondParentHash;
+    }
+
     public String getMessage() {
         return message;
     }
@@ -44,17 +166,31 @@ public class Commit implements Serializable {
         return datetime;
     }
 
-    public HashMap<String, String> getBlobs() {
+    // Returns the commit time in seconds since the epoch.
+    public long getTimestamp() {
+        return LocalDateTime.parse(datetime, DATE_FORMAT)
+                .atZone(ZoneId.systemDefault()).toEpochSecond();
+    }
+
+    public String getTreeHash() {
+        return treeHash;
+    }
+
+    // Returns the blob of every file in this commit, reading the tree from
+    // OBJECTS the first time.
+    public FileMap getBlobs(ObjectStore objects) {
+        if (blobs == null) {
+            blobs = Tree.flatten(objects, treeHash);
+        }
         return blobs;
     }
 
-    public String globalLog() {
-        String firstLine = "===\n";
-        String secondLine = "Commit " + ownHash + "\n";
-        String thirdLine = datetime + "\n";
-        String fourthLine = message + "\n";
-        String fifthLine = "\n";
-        String allLines = firstLine + secondLine + thirdLine + fourthLine + fifthLine;
-        return allLines;
+    // Returns the blob of FILENAME in this commit, or null if it has none,
+    // looking it up in the tree rather than reading the whole of it.
+    public String getBlob(ObjectStore objects, String fileName) {
+        if (blobs != null) {
+            return blobs.get(fileName);
+        }
+        return Tree.lookup(objects, treeHash, fileName);
     }
 }
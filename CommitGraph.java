@@ -0,0 +1,250 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+// Append-only table of fixed-width records, one per commit, holding the
+// commit's hash, the record positions of its parents, its generation number
+// and its timestamp. Parents are always appended before their children, so
+// ancestry can be walked by position without reading any commit objects.
+public class CommitGraph {
+    private static final String GRAPH_FILE = ".gitlet/commit-graph";
+    private static final int GRAPH_MAGIC = 0x47434731; // "GCG1"
+    private static final int HEADER_SIZE = 4;
+    private static final int HASH_SIZE = 20;
+    // hash, first parent, second parent, generation, timestamp
+    private static final int RECORD_SIZE = HASH_SIZE + 4 + 4 + 4 + 8;
+    static final int NONE = -1;
+    // Marks used while searching for a common ancestor.
+    private static final int FROM_CURRENT = 1;
+    private static final int FROM_OTHER = 2;
+    private static final int STALE = 4;
+
+    private MappedByteBuffer records;
+    private int count;
+    // Record position of each commit, by hash.
+    private HashMap<String, Integer> positions = new HashMap<>();
+
+    public CommitGraph() {
+        if (!new File(GRAPH_FILE).exists()) {
+            rebuild();
+        }
+        map();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Returns the record position of the commit named HASH, or NONE.
+    public int position(String hash) {
+        Integer pos = positions.get(hash);
+        return pos == null ? NONE : pos;
+    }
+
+    public String hash(int pos) {
+        byte[] hash = new byte[HASH_SIZE];
+        records.get(offset(pos), hash);
+        return Utils.bytesToHex(hash, 0, HASH_SIZE);
+    }
+
+    public int parent(int pos) {
+        return records.getInt(offset(pos) + HASH_SIZE);
+    }
+
+    public int secondParent(int pos) {
+        return records.getInt(offset(pos) + HASH_SIZE + 4);
+    }
+
+    public int generation(int pos) {
+        return records.getInt(offset(pos) + HASH_SIZE + 8);
+    }
+
+    public long timestamp(int pos) {
+        return records.getLong(offset(pos) + HASH_SIZE + 12);
+    }
+
+    // Returns the hash of the best common ancestor of CURRENT and OTHER, or
+    // null if the two histories never meet. Ancestors of both are painted
+    // down from the two tips at once, highest generation first, so every
+    // descendant of a commit is visited before it; the walk stops once only
+    // ancestors of an already found common ancestor remain queued. Of the
+    // common ancestors that are not ancestors of one another, which only
+    // criss-cross merges produce more than one of, the one with the highest
+    // generation wins, then the latest, then the lowest record position.
+    public String splitPoint(String current, String other) {
+        int currentPos = position(current);
+        int otherPos = position(other);
+        if (currentPos == NONE || otherPos == NONE) {
+            return null;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        TreeSet<Integer> queue = new TreeSet<>(
+                Comparator.comparingInt(this::generation).thenComparingInt(p -> p).reversed());
+        // Number of queued commits not marked STALE.
+        int active = paint(currentPos, FROM_CURRENT, flags, queue)
+                + paint(otherPos, FROM_OTHER, flags, queue);
+        int best = NONE;
+        while (active > 0) {
+            int pos = queue.pollFirst();
+            int flag = flags.get(pos);
+            if ((flag & STALE) == 0) {
+                active -= 1;
+            }
+            if (flag == (FROM_CURRENT | FROM_OTHER)) {
+                if (best == NONE || better(pos, best)) {
+                    best = pos;
+                }
+                flag |= STALE;
+            }
+            active += paint(parent(pos), flag, flags, queue);
+            active += paint(secondParent(pos), flag, flags, queue);
+        }
+        return best == NONE ? null : hash(best);
+    }
+
+    // Adds FLAG to the commit at POS, queueing it if that changed its flags,
+    // and returns the change in the number of queued commits not STALE.
+    private int paint(int pos, int flag, HashMap<Integer, Integer> flags,
+                      TreeSet<Integer> queue) {
+        if (pos == NONE) {
+            return 0;
+        }
+        int old = flags.getOrDefault(pos, 0);
+        if ((old | flag) == old) {
+            return 0;
+        }
+        flags.put(pos, old | flag);
+        int before = !queue.add(pos) && (old & STALE) == 0 ? 1 : 0;
+        int after = ((old | flag) & STALE) == 0 ? 1 : 0;
+        return after - before;
+    }
+
+    // Returns true if the common ancestor at POS is preferable to that at BEST.
+    private boolean better(int pos, int best) {
+        if (generation(pos) != generation(best)) {
+            return generation(pos) > generation(best);
+        } else if (timestamp(pos) != timestamp(best)) {
+            return timestamp(pos) > timestamp(best);
+        }
+        return pos < best;
+    }
+
+    // Appends a record for COMMIT, whose parents must already be present,
+    // unless it has one already, as it does when opening the graph rebuilt it.
+    public void append(Commit commit) {
+        if (position(commit.getOwnHash()) != NONE) {
+            return;
+        }
+        int parent = commit.getParentHash() == null ? NONE : position(commit.getParentHash());
+        int secondParent = commit.getSecondParentHash() == null
+                ? NONE : position(commit.getSecondParentHash());
+        int generation = 1 + Math.max(parent == NONE ? 0 : generation(parent),
+                secondParent == NONE ? 0 : generation(secondParent));
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(Utils.hexToBytes(commit.getOwnHash()));
+        record.putInt(parent).putInt(secondParent).putInt(generation)
+                .putLong(commit.getTimestamp());
+        record.flip();
+        try (FileChannel out = FileChannel.open(Paths.get(GRAPH_FILE),
+                StandardOpenOption.WRITE)) {
+            // Drops what is left of a record whose write was interrupted.
+            long end = out.size() - (out.size() - HEADER_SIZE) % RECORD_SIZE;
+            out.truncate(end);
+            out.write(record, end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        map();
+    }
+
+    // Rewrites the graph from every commit in .gitlet/commits, parents first,
+    // dropping the changed-path filters, which follow the old order.
+    public static void rebuild() {
+        ChangedPaths.clear();
+        HashMap<String, Commit> commits = new HashMap<>();
+        for (String fileName : Utils.plainFilenamesIn(".gitlet/commits")) {
+            Commit c = SerializeUtils.readCommit(".gitlet/commits/" + fileName);
+            commits.put(c.getOwnHash(), c);
+        }
+        HashMap<String, Integer> positions = new HashMap<>();
+        List<Commit> order = new ArrayList<>();
+        ArrayDeque<Commit> pending = new ArrayDeque<>();
+        for (Commit start : commits.values()) {
+            pending.push(start);
+            while (!pending.isEmpty()) {
+                Commit c = pending.peek();
+                Commit parent = commits.get(c.getParentHash());
+                Commit secondParent = commits.get(c.getSecondParentHash());
+                if (positions.containsKey(c.getOwnHash())) {
+                    pending.pop();
+                } else if (parent != null && !positions.containsKey(parent.getOwnHash())) {
+                    pending.push(parent);
+                } else if (secondParent != null
+                        && !positions.containsKey(secondParent.getOwnHash())) {
+                    pending.push(secondParent);
+                } else {
+                    positions.put(c.getOwnHash(), order.size());
+                    order.add(c);
+                    pending.pop();
+                }
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + order.size() * RECORD_SIZE);
+        out.putInt(GRAPH_MAGIC);
+        int[] generations = new int[order.size()];
+        for (int pos = 0; pos < order.size(); pos += 1) {
+            Commit c = order.get(pos);
+            Integer parent = positions.get(c.getParentHash());
+            Integer secondParent = positions.get(c.getSecondParentHash());
+            generations[pos] = 1 + Math.max(parent == null ? 0 : generations[parent],
+                    secondParent == null ? 0 : generations[secondParent]);
+            out.put(Utils.hexToBytes(c.getOwnHash()));
+            out.putInt(parent == null ? NONE : parent);
+            out.putInt(secondParent == null ? NONE : secondParent);
+            out.putInt(generations[pos]).putLong(c.getTimestamp());
+        }
+        Path tmp = Paths.get(GRAPH_FILE + ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            Files.move(tmp, Paths.get(GRAPH_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private int offset(int pos) {
+        return HEADER_SIZE + pos * RECORD_SIZE;
+    }
+
+    private void map() {
+        try (FileChannel in = FileChannel.open(Paths.get(GRAPH_FILE))) {
+            records = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (records.getInt(0) != GRAPH_MAGIC) {
+            throw new IllegalArgumentException("Corrupt commit graph.");
+        }
+        int mapped = positions.size();
+        count = (records.capacity() - HEADER_SIZE) / RECORD_SIZE;
+        for (int pos = mapped; pos < count; pos += 1) {
+            positions.put(hash(pos), pos);
+        }
+    }
+}
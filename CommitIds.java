@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+// Sorted table of every commit id, used to expand abbreviated ids. A 256-entry
+// fan-out table on the first byte narrows each lookup to the ids sharing that
+// byte, which are then binary searched. New ids are appended to a small
+// unsorted tail that is merged into the table once it grows past MERGE_AT.
+public class CommitIds {
+    private static final String TABLE_FILE = ".gitlet/commit-ids";
+    private static final String TAIL_FILE = ".gitlet/commit-ids.new";
+    private static final int TABLE_MAGIC = 0x47434931; // "GCI1"
+    private static final int HASH_SIZE = 20;
+    private static final int FANOUT_SIZE = 256 * 4;
+    private static final int HEADER_SIZE = 8 + FANOUT_SIZE;
+    private static final int MERGE_AT = 256;
+
+    private MappedByteBuffer table;
+    private byte[] tail;
+
+    public CommitIds() {
+        if (!new File(TABLE_FILE).exists()) {
+            rebuild();
+        }
+        load();
+    }
+
+    // Returns up to LIMIT full ids that start with the hexadecimal PREFIX.
+    public List<String> matches(String prefix, int limit) {
+        List<String> result = new ArrayList<>();
+        String key = prefix.toLowerCase();
+        if (key.isEmpty() || key.length() > 2 * HASH_SIZE || !key.matches("[0-9a-f]+")) {
+            return result;
+        }
+        int firstByte = Integer.parseInt(key.substring(0, Math.min(2, key.length())), 16);
+        int fromByte = key.length() == 1 ? firstByte << 4 : firstByte;
+        int toByte = key.length() == 1 ? fromByte + 15 : firstByte;
+        int lo = fromByte == 0 ? 0 : table.getInt(8 + 4 * (fromByte - 1));
+        int hi = table.getInt(8 + 4 * toByte);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(mid, key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        int count = table.getInt(4);
+        for (int pos = lo; pos < count && result.size() < limit && compare(pos, key) == 0;
+             pos += 1) {
+            result.add(idAt(pos));
+        }
+        for (int base = 0; base + HASH_SIZE <= tail.length && result.size() < limit;
+             base += HASH_SIZE) {
+            String id = Utils.bytesToHex(tail, base, HASH_SIZE);
+            if (id.startsWith(key)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    // Records a new commit id, merging the tail into the table when it is full.
+    // An id already present, as it is when opening the table rebuilt it, is
+    // not added twice.
+    public void add(String id) {
+        if (!matches(id, 1).isEmpty()) {
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(Paths.get(TAIL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(Utils.hexToBytes(id));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (new File(TAIL_FILE).length() >= MERGE_AT * HASH_SIZE) {
+            TreeSet<String> ids = new TreeSet<>();
+            int count = table.getInt(4);
+            for (int pos = 0; pos < count; pos += 1) {
+                ids.add(idAt(pos));
+            }
+            byte[] newTail = Utils.readContents(new File(TAIL_FILE));
+            for (int base = 0; base < newTail.length; base += HASH_SIZE) {
+                ids.add(Utils.bytesToHex(newTail, base, HASH_SIZE));
+            }
+            write(ids);
+        }
+        load();
+    }
+
+    // Rewrites the table from every commit in .gitlet/commits.
+    public static void rebuild() {
+        TreeSet<String> ids = new TreeSet<>();
+        for (String fileName : Utils.plainFilenamesIn(".gitlet/commits")) {
+            ids.add(fileName.substring(0, fileName.length() - 4));
+        }
+        write(ids);
+    }
+
+    // Writes IDS as the sorted table and empties the tail.
+    private static void write(TreeSet<String> ids) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + ids.size() * HASH_SIZE);
+        out.putInt(TABLE_MAGIC).putInt(ids.size());
+        int[] fanout = new int[256];
+        for (String id : ids) {
+            fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+        }
+        for (int b = 0, total = 0; b < 256; b += 1) {
+            total += fanout[b];
+            out.putInt(total);
+        }
+        for (String id : ids) {
+            out.put(Utils.hexToBytes(id));
+        }
+        Path tmp = Paths.get(TABLE_FILE + ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            Files.move(tmp, Paths.get(TABLE_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            Files.deleteIfExists(Paths.get(TAIL_FILE));
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private String idAt(int pos) {
+        byte[] id = new byte[HASH_SIZE];
+        table.get(HEADER_SIZE + pos * HASH_SIZE, id);
+        return Utils.bytesToHex(id, 0, HASH_SIZE);
+    }
+
+    // Compares the first KEY.length() hex digits of the id at POS with KEY.
+    private int compare(int pos, String key) {
+        int base = HEADER_SIZE + pos * HASH_SIZE;
+        for (int i = 0; i < key.length(); i += 1) {
+            int b = table.get(base + i / 2) & 0xff;
+            int digit = i % 2 == 0 ? b >>> 4 : b & 0xf;
+            int cmp = digit - Character.digit(key.charAt(i), 16);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private void load() {
+        try (FileChannel in = FileChannel.open(Paths.get(TABLE_FILE))) {
+            table = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (table.getInt(0) != TABLE_MAGIC) {
+            throw new IllegalArgumentException("Corrupt commit id table.");
+        }
+        File tailFile = new File(TAIL_FILE);
+        tail = tailFile.exists() ? Utils.readContents(tailFile) : new byte[0];
+    }
+}
@@ -0,0 +1,79 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reports the compression ratio and throughput of each zlib level on real
+ * data, to help choose GITLET_COMPRESSION.
+ * Usage: java gitlet.CompressionBenchmark [PATH ...], where each PATH is a
+ * file or a directory to walk. Defaults to the current directory, skipping
+ * .gitlet.
+ */
+public class CompressionBenchmark {
+
+    private static final int[] LEVELS = {1, 3, 6, 9};
+
+    public static void main(String... args) throws IOException {
+        List<Path> files = new ArrayList<>();
+        String[] roots = args.length == 0 ? new String[]{"."} : args;
+        for (String root : roots) {
+            try (Stream<Path> walk = Files.walk(Paths.get(root))) {
+                files.addAll(walk.filter(Files::isRegularFile)
+                        .filter(p -> !p.toString().contains(File.separator + ".gitlet"))
+                        .collect(Collectors.toList()));
+            }
+        }
+        System.out.printf("%d files%n", files.size());
+        System.out.printf("%5s %12s %12s %7s %12s %12s%n",
+                "level", "raw bytes", "stored", "ratio", "deflate MB/s", "inflate MB/s");
+        byte[] buf = new byte[64 * 1024];
+        for (int level : LEVELS) {
+            long raw = 0;
+            long stored = 0;
+            long deflateNanos = 0;
+            long inflateNanos = 0;
+            for (Path file : files) {
+                byte[] contents = Files.readAllBytes(file);
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                Deflater deflater = new Deflater(level);
+                long start = System.nanoTime();
+                try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+                    out.write(contents);
+                }
+                deflateNanos += System.nanoTime() - start;
+                deflater.end();
+                start = System.nanoTime();
+                try (InputStream in = new InflaterInputStream(
+                        new ByteArrayInputStream(compressed.toByteArray()))) {
+                    while (in.read(buf) >= 0) {
+                        continue;
+                    }
+                }
+                inflateNanos += System.nanoTime() - start;
+                raw += contents.length;
+                stored += compressed.size() + 1;
+            }
+            System.out.printf("%5d %12d %12d %7.2f %12.1f %12.1f%n", level, raw, stored,
+                    stored == 0 ? 0.0 : (double) raw / stored,
+                    megabytesPerSecond(raw, deflateNanos), megabytesPerSecond(raw, inflateNanos));
+        }
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0.0 : bytes / 1e6 / (nanos / 1e9);
+    }
+}
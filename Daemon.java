@@ -0,0 +1,140 @@
+package gitlet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Optional long-running server that keeps one warm Repo and runs commands sent
+// over a Unix-domain socket in .gitlet, so each command does not pay for JVM
+// startup and cold object decoding. Commands run one at a time, with
+// System.out pointed at the client while each one runs.
+public class Daemon {
+    private static final String SOCKET = ".gitlet/daemon.sock";
+    private static final String STOP = "--stop";
+
+    // Serves commands until a client sends "daemon --stop". A socket left by
+    // a daemon that died is replaced, but one that a daemon still answers on
+    // is left alone, and this one does not start.
+    public static void serve() {
+        Path socket = Paths.get(SOCKET);
+        PrintStream console = System.out;
+        if (answers(socket)) {
+            console.println("A daemon is already running.");
+            return;
+        }
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            Files.deleteIfExists(socket);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Repo repo = new Repo();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    String[] args = readArgs(new DataInputStream(Channels.newInputStream(client)));
+                    if (args == null) {
+                        continue;
+                    }
+                    PrintStream out = new PrintStream(Channels.newOutputStream(client),
+                            false, StandardCharsets.UTF_8);
+                    System.setOut(out);
+                    try {
+                        if (isStop(args)) {
+                            running = false;
+                        } else {
+                            repo.reload();
+                            Main.run(repo, args);
+                        }
+                    } catch (RuntimeException excp) {
+                        out.println(excp.getMessage());
+                    } finally {
+                        System.setOut(console);
+                        out.flush();
+                    }
+                } catch (IOException excp) {
+                    console.println("Dropped a daemon client: " + excp.getMessage());
+                }
+            }
+        } catch (IOException excp) {
+            console.println("Could not start the daemon: " + excp.getMessage());
+        } finally {
+            socket.toFile().delete();
+        }
+    }
+
+    // Sends ARGS to a running daemon and copies its output to System.out as it
+    // arrives. Returns false, having done nothing, if no daemon is listening.
+    public static boolean forward(String... args) {
+        Path socket = Paths.get(SOCKET);
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        SocketChannel server;
+        try {
+            server = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        } catch (IOException excp) {
+            return false;
+        }
+        try (SocketChannel channel = server) {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            InputStream in = Channels.newInputStream(channel);
+            byte[] buf = new byte[8192];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                System.out.write(buf, 0, n);
+                System.out.flush();
+            }
+        } catch (IOException excp) {
+            System.out.println("Lost the connection to the daemon.");
+        }
+        return true;
+    }
+
+    // Returns true if ARGS asks a running daemon to stop.
+    static boolean isStop(String... args) {
+        return args.length == 2 && args[0].equals("daemon") && args[1].equals(STOP);
+    }
+
+    // Returns true if a daemon accepts connections on SOCKET.
+    private static boolean answers(Path socket) {
+        if (!Files.exists(socket)) {
+            return false;
+        }
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socket)).close();
+            return true;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    // Returns the arguments a client sent, or null if it closed the
+    // connection without sending any, as answers() does.
+    private static String[] readArgs(DataInputStream in) throws IOException {
+        int count;
+        try {
+            count = in.readInt();
+        } catch (EOFException excp) {
+            return null;
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < args.length; i += 1) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+}
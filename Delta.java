@@ -0,0 +1,145 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Copy/insert deltas between two versions of a file.  A delta is the
+ * length of the result followed by instructions that either copy a run of
+ * bytes out of the base or insert literal bytes.
+ */
+class Delta {
+
+    /** Length of the blocks of the base that matches are found from. */
+    private static final int BLOCK = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+    private static final byte COPY = 1;
+    private static final byte INSERT = 2;
+
+    /** Returns a delta that rebuilds TARGET from BASE. */
+    static byte[] compute(byte[] base, byte[] target) {
+        int[] table = indexBlocks(base);
+        int mask = table.length - 1;
+        int power = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            power *= PRIME;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(target.length / 8 + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(target.length);
+            int pending = 0;
+            int pos = 0;
+            int hash = target.length >= BLOCK ? hash(target, 0) : 0;
+            while (pos + BLOCK <= target.length) {
+                int candidate = table[hash & mask] - 1;
+                if (candidate >= 0 && matches(base, candidate, target, pos)) {
+                    int start = candidate;
+                    int len = BLOCK;
+                    while (start > 0 && pos > pending
+                            && base[start - 1] == target[pos - 1]) {
+                        start -= 1;
+                        pos -= 1;
+                        len += 1;
+                    }
+                    while (start + len < base.length && pos + len < target.length
+                            && base[start + len] == target[pos + len]) {
+                        len += 1;
+                    }
+                    writeInsert(out, target, pending, pos);
+                    out.writeByte(COPY);
+                    out.writeInt(start);
+                    out.writeInt(len);
+                    pos += len;
+                    pending = pos;
+                    if (pos + BLOCK <= target.length) {
+                        hash = hash(target, pos);
+                    }
+                } else {
+                    if (pos + BLOCK < target.length) {
+                        hash = (hash - target[pos] * power) * PRIME + target[pos + BLOCK];
+                    }
+                    pos += 1;
+                }
+            }
+            writeInsert(out, target, pending, target.length);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Internal error encoding delta.");
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        byte[] result = new byte[in.getInt()];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            if (op == COPY) {
+                int start = in.getInt();
+                int len = in.getInt();
+                System.arraycopy(base, start, result, pos, len);
+                pos += len;
+            } else if (op == INSERT) {
+                int len = in.getInt();
+                in.get(result, pos, len);
+                pos += len;
+            } else {
+                throw new IllegalArgumentException("Corrupt delta.");
+            }
+        }
+        if (pos != result.length) {
+            throw new IllegalArgumentException("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /**
+     * Returns a table from the hash of each aligned block of BASE to one plus
+     * the offset of the first block with that slot; zero marks an empty slot.
+     */
+    private static int[] indexBlocks(byte[] base) {
+        int size = 16;
+        while (size < 2 * (base.length / BLOCK)) {
+            size <<= 1;
+        }
+        int[] table = new int[size];
+        for (int offset = 0; offset + BLOCK <= base.length; offset += BLOCK) {
+            int slot = hash(base, offset) & (size - 1);
+            if (table[slot] == 0) {
+                table[slot] = offset + 1;
+            }
+        }
+        return table;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int h = 0;
+        for (int i = 0; i < BLOCK; i += 1) {
+            h = h * PRIME + data[offset + i];
+        }
+        return h;
+    }
+
+    private static boolean matches(byte[] base, int start, byte[] target, int pos) {
+        for (int i = 0; i < BLOCK; i += 1) {
+            if (base[start + i] != target[pos + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] target, int from, int to)
+            throws IOException {
+        if (to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(target, from, to - from);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Line diffs by Myers' O(ND) algorithm, in its linear-space form: each step
+ * finds the middle snake of a shortest edit script and recurses on the two
+ * halves on either side of it.
+ */
+class Diff {
+
+    /** Unchanged lines shown around each change in a unified diff. */
+    private static final int CONTEXT = 3;
+    /** Files with a NUL byte this near their start are shown as binary. */
+    private static final int BINARY_PROBE = 8000;
+    /** Files longer than this are reported as differing without being read. */
+    static final long MAX_SIZE = 64L << 20;
+    /**
+     * Most lines a unified diff searches for a shortest edit script of, the
+     * search costing time proportional to that number times the lines of
+     * the file.  Files further apart are shown as entirely replaced.
+     */
+    static final int MAX_COST = 4096;
+
+    /**
+     * Returns the lines of CONTENTS, each keeping its trailing newline.  The
+     * bytes are decoded one to one as ISO-8859-1, so any file round-trips
+     * unchanged.
+     */
+    static List<String> lines(byte[] contents) {
+        return lines(ByteBuffer.wrap(contents));
+    }
+
+    /**
+     * Returns the lines between the position and limit of CONTENTS, which
+     * may map a file, as lines(byte[]) does.
+     */
+    static List<String> lines(ByteBuffer contents) {
+        List<String> result = new ArrayList<>();
+        int start = contents.position();
+        int end = contents.limit();
+        for (int i = start; i < end; i += 1) {
+            if (contents.get(i) == '\n') {
+                result.add(line(contents, start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            result.add(line(contents, start, end));
+        }
+        return result;
+    }
+
+    private static String line(ByteBuffer contents, int start, int end) {
+        byte[] bytes = new byte[end - start];
+        contents.get(start, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the lines of each of FILES as small integers, equal lines
+     * getting equal numbers, so that comparisons during the diff are cheap.
+     */
+    static int[][] number(List<List<String>> files) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[][] result = new int[files.size()][];
+        for (int f = 0; f < files.size(); f += 1) {
+            List<String> file = files.get(f);
+            result[f] = new int[file.size()];
+            for (int i = 0; i < file.size(); i += 1) {
+                Integer id = ids.putIfAbsent(file.get(i), ids.size());
+                result[f][i] = id == null ? ids.size() - 1 : id;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns an array giving, for each line of A, the index of the line of B
+     * it is kept as in a shortest edit script from A to B, or -1 if it is
+     * deleted.  The matched indices increase along A.
+     */
+    static int[] match(int[] a, int[] b) {
+        return match(a, b, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns what match(A, B) does, or null, having searched only that far,
+     * if a shortest edit script from A to B inserts and deletes more than
+     * MAXCOST lines.
+     */
+    static int[] match(int[] a, int[] b, int maxCost) {
+        int[] result = new int[a.length];
+        Arrays.fill(result, -1);
+        int max = (a.length + b.length + 1) / 2 + 1;
+        int[] forward = new int[2 * max + 1];
+        int[] backward = new int[2 * max + 1];
+        if (!match(a, 0, a.length, b, 0, b.length, result, forward, backward, max, maxCost)) {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Fills RESULT for A[ALO..AHI) against B[BLO..BHI), returning false if
+     * their shortest edit script is longer than MAXCOST.  FORWARD and
+     * BACKWARD are scratch arrays of furthest reaching paths, indexed by
+     * diagonal plus OFFSET.
+     */
+    private static boolean match(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                 int[] result, int[] forward, int[] backward, int offset,
+                                 int maxCost) {
+        while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+            result[aLo] = bLo;
+            aLo += 1;
+            bLo += 1;
+        }
+        while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+            aHi -= 1;
+            bHi -= 1;
+            result[aHi] = bHi;
+        }
+        if (aLo == aHi || bLo == bHi) {
+            return aHi - aLo + bHi - bLo <= maxCost;
+        }
+        int[] snake = middleSnake(a, aLo, aHi, b, bLo, bHi, forward, backward, offset, maxCost);
+        if (snake == null) {
+            return false;
+        }
+        // The halves' scripts together are no longer than the whole's.
+        match(a, aLo, aLo + snake[0], b, bLo, bLo + snake[1],
+                result, forward, backward, offset, Integer.MAX_VALUE);
+        for (int x = snake[0], y = snake[1]; x < snake[2]; x += 1, y += 1) {
+            result[aLo + x] = bLo + y;
+        }
+        match(a, aLo + snake[2], aHi, b, bLo + snake[3], bHi,
+                result, forward, backward, offset, Integer.MAX_VALUE);
+        return true;
+    }
+
+    /**
+     * Returns the start and end points {X0, Y0, X1, Y1}, relative to ALO and
+     * BLO, of the middle snake of a shortest edit script from A[ALO..AHI) to
+     * B[BLO..BHI), or null if that script is longer than MAXCOST.  The
+     * backward search runs over both ranges reversed, so its diagonal C
+     * corresponds to diagonal DELTA - C going forward.
+     */
+    private static int[] middleSnake(int[] a, int aLo, int aHi, int[] b, int bLo, int bHi,
+                                     int[] forward, int[] backward, int offset, int maxCost) {
+        int n = aHi - aLo;
+        int m = bHi - bLo;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        for (int d = 0; d <= (n + m + 1) / 2; d += 1) {
+            // A snake met in the forward pass for this D ends a script of
+            // 2D - 1 edits, and one met in the backward pass one of 2D.
+            if (2 * d - 1 > maxCost) {
+                return null;
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                int x0 = x;
+                int y0 = y;
+                while (x < n && y < m && a[aLo + x] == b[bLo + y]) {
+                    x += 1;
+                    y += 1;
+                }
+                forward[offset + k] = x;
+                int c = delta - k;
+                if (odd && c >= -(d - 1) && c <= d - 1 && x + backward[offset + c] >= n) {
+                    return new int[]{x0, y0, x, y};
+                }
+            }
+            if (2 * d > maxCost) {
+                return null;
+            }
+            for (int c = -d; c <= d; c += 2) {
+                int u = c == -d || (c != d && backward[offset + c - 1] < backward[offset + c + 1])
+                        ? backward[offset + c + 1] : backward[offset + c - 1] + 1;
+                int v = u - c;
+                int u0 = u;
+                int v0 = v;
+                while (u < n && v < m && a[aHi - 1 - u] == b[bHi - 1 - v]) {
+                    u += 1;
+                    v += 1;
+                }
+                backward[offset + c] = u;
+                int k = delta - c;
+                if (!odd && k >= -d && k <= d && forward[offset + k] + u >= n) {
+                    return new int[]{n - u, m - v, n - u0, m - v0};
+                }
+            }
+        }
+        throw new IllegalArgumentException("Internal error computing diff.");
+    }
+
+    /**
+     * Writes to OUT, in place of a unified diff, that the file PATH differs
+     * and is too large to compare.  BEFORE and AFTER tell whether the file
+     * exists on either side.
+     */
+    static void large(String path, boolean before, boolean after, OutputStream out)
+            throws IOException {
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        write(out, "Large files " + (before ? "a/" + path : "/dev/null") + " and "
+                + (after ? "b/" + path : "/dev/null") + " differ\n");
+    }
+
+    /**
+     * Writes to OUT a unified diff of the file PATH from BEFORE to AFTER,
+     * null where the file is absent, with CONTEXT unchanged lines around
+     * each change.  Files that look binary are only reported as differing,
+     * and files more than MAX_COST lines apart are shown as one hunk that
+     * replaces every line.
+     */
+    static void unified(String path, ByteBuffer before, ByteBuffer after, OutputStream out)
+            throws IOException {
+        String from = before == null ? "/dev/null" : "a/" + path;
+        String to = after == null ? "/dev/null" : "b/" + path;
+        write(out, "diff --git a/" + path + " b/" + path + "\n");
+        if (isBinary(before) || isBinary(after)) {
+            write(out, "Binary files " + from + " and " + to + " differ\n");
+            return;
+        }
+        write(out, "--- " + from + "\n+++ " + to + "\n");
+        List<String> a = before == null ? List.of() : lines(before);
+        List<String> b = after == null ? List.of() : lines(after);
+        int[][] ids = number(List.of(a, b));
+        int[] match = match(ids[0], ids[1], MAX_COST);
+        if (match == null) {
+            match = new int[a.size()];
+            Arrays.fill(match, -1);
+        }
+
+        // The edit script, one entry per line kept, deleted or inserted,
+        // with the number of lines of A and of B that precede each.
+        int size = a.size() + b.size();
+        char[] ops = new char[size];
+        int[] aAt = new int[size + 1];
+        int[] bAt = new int[size + 1];
+        int len = 0;
+        for (int i = 0, j = 0; i < a.size() || j < b.size(); len += 1) {
+            aAt[len] = i;
+            bAt[len] = j;
+            if (i < a.size() && match[i] < 0) {
+                ops[len] = '-';
+                i += 1;
+            } else if (j < b.size() && (i == a.size() || match[i] != j)) {
+                ops[len] = '+';
+                j += 1;
+            } else {
+                ops[len] = ' ';
+                i += 1;
+                j += 1;
+            }
+        }
+        aAt[len] = a.size();
+        bAt[len] = b.size();
+
+        for (int k = 0; k < len; k += 1) {
+            if (ops[k] == ' ') {
+                continue;
+            }
+            int start = Math.max(0, k - CONTEXT);
+            int last = k;
+            for (int p = k + 1; p < len && p - last <= 2 * CONTEXT + 1; p += 1) {
+                if (ops[p] != ' ') {
+                    last = p;
+                }
+            }
+            int stop = Math.min(len, last + 1 + CONTEXT);
+            write(out, "@@ -" + range(aAt[start], aAt[stop] - aAt[start])
+                    + " +" + range(bAt[start], bAt[stop] - bAt[start]) + " @@\n");
+            for (int p = start; p < stop; p += 1) {
+                String line = ops[p] == '+' ? b.get(bAt[p]) : a.get(aAt[p]);
+                write(out, ops[p] + line);
+                if (!line.endsWith("\n")) {
+                    write(out, "\n\\ No newline at end of file\n");
+                }
+            }
+            k = stop - 1;
+        }
+    }
+
+    /**
+     * Returns the START, counted from zero, and LENGTH of a range of lines
+     * as a unified diff header gives them.
+     */
+    private static String range(int start, int length) {
+        return (length == 0 ? start : start + 1) + "," + length;
+    }
+
+    /** Returns true if CONTENTS has a NUL byte near its start. */
+    private static boolean isBinary(ByteBuffer contents) {
+        if (contents == null) {
+            return false;
+        }
+        int end = Math.min(contents.limit(), contents.position() + BINARY_PROBE);
+        for (int i = contents.position(); i < end; i += 1) {
+            if (contents.get(i) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void write(OutputStream out, String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,402 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// An immutable map from file names to blob hashes, kept as a hash array
+// mapped trie: each node covers five bits of the key's hash and holds up to
+// 32 entries or child nodes. plus and minus copy only the nodes on the path
+// to the key, O(log n) of them, and share the rest with the map they came
+// from, so a commit's files can be derived from its parent's without
+// copying them all, and diff can skip any node two maps share.
+public final class FileMap {
+    public static final FileMap EMPTY = new FileMap(Node.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private FileMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    // Returns a map holding the entries of FILES.
+    public static FileMap of(Map<String, String> files) {
+        FileMap result = EMPTY;
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            result = result.plus(file.getKey(), file.getValue());
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Returns the blob of FILENAME, or null if it has none.
+    public String get(String fileName) {
+        return root.get(fileName, hash(fileName), 0);
+    }
+
+    public boolean containsKey(String fileName) {
+        return get(fileName) != null;
+    }
+
+    // Returns this map with FILENAME mapped to BLOB.
+    public FileMap plus(String fileName, String blob) {
+        int[] grown = new int[1];
+        Node newRoot = root.plus(fileName, blob, hash(fileName), 0, grown);
+        return newRoot == root ? this : new FileMap(newRoot, size + grown[0]);
+    }
+
+    // Returns this map without FILENAME.
+    public FileMap minus(String fileName) {
+        Node newRoot = root.minus(fileName, hash(fileName), 0);
+        return newRoot == root ? this : new FileMap(newRoot, size - 1);
+    }
+
+    // Passes each file name and its blob to ACTION, in no particular order.
+    public void forEach(BiConsumer<String, String> action) {
+        root.forEach(action);
+    }
+
+    // Returns the file names in this map, in no particular order.
+    public List<String> keys() {
+        List<String> result = new ArrayList<>(size);
+        forEach((fileName, blob) -> result.add(fileName));
+        return result;
+    }
+
+    // Returns the blobs in this map, in no particular order.
+    public List<String> values() {
+        List<String> result = new ArrayList<>(size);
+        forEach((fileName, blob) -> result.add(blob));
+        return result;
+    }
+
+    // Reports to VISITOR each file whose blob differs between this map and
+    // OTHER, with null for a file that one lacks. Nodes the two maps share
+    // are skipped without being visited, but only maps derived from one
+    // another share any: the maps of two commits read from disk are each
+    // built afresh, and diffing them visits every entry of both, O(n).
+    public void diff(FileMap other, Tree.Visitor visitor) {
+        diff(root, other.root, 0, visitor);
+    }
+
+    // Diffs the nodes A and B, which cover the hash bits from SHIFT on.
+    private static void diff(Node a, Node b, int shift, Tree.Visitor visitor) {
+        if (a == b) {
+            return;
+        }
+        if (a.collisions == null && b.collisions == null) {
+            for (int bits = a.dataMap | a.nodeMap | b.dataMap | b.nodeMap; bits != 0;
+                 bits &= bits - 1) {
+                int bit = bits & -bits;
+                boolean aData = (a.dataMap & bit) != 0;
+                boolean bData = (b.dataMap & bit) != 0;
+                if ((a.nodeMap & bit) != 0 && (b.nodeMap & bit) != 0) {
+                    diff(a.child(bit), b.child(bit), shift + BITS, visitor);
+                } else if ((a.nodeMap & bit) != 0) {
+                    diff(a.child(bit), bData ? b.key(bit) : null, bData ? b.value(bit) : null,
+                            shift + BITS, false, visitor);
+                } else if ((b.nodeMap & bit) != 0) {
+                    diff(b.child(bit), aData ? a.key(bit) : null, aData ? a.value(bit) : null,
+                            shift + BITS, true, visitor);
+                } else if (aData && bData && a.key(bit).equals(b.key(bit))) {
+                    if (!a.value(bit).equals(b.value(bit))) {
+                        visitor.changed(a.key(bit), a.value(bit), b.value(bit));
+                    }
+                } else {
+                    if (aData) {
+                        visitor.changed(a.key(bit), a.value(bit), null);
+                    }
+                    if (bData) {
+                        visitor.changed(b.key(bit), null, b.value(bit));
+                    }
+                }
+            }
+        } else {
+            HashMap<String, String> x = new HashMap<>();
+            a.forEach(x::put);
+            HashMap<String, String> y = new HashMap<>();
+            b.forEach(y::put);
+            diffEntries(x, y, visitor);
+        }
+    }
+
+    // Diffs the entries under NODE, which covers the hash bits from SHIFT on,
+    // against the single entry KEY and VALUE, or against none if KEY is null.
+    // NODE is the map after if AFTER, and the map before otherwise.
+    private static void diff(Node node, String key, String value, int shift, boolean after,
+                             Tree.Visitor visitor) {
+        node.forEach((fileName, blob) -> {
+            if (!fileName.equals(key)) {
+                visitor.changed(fileName, after ? null : blob, after ? blob : null);
+            } else if (!blob.equals(value)) {
+                visitor.changed(fileName, after ? value : blob, after ? blob : value);
+            }
+        });
+        if (key != null && node.get(key, hash(key), shift) == null) {
+            visitor.changed(key, after ? value : null, after ? null : value);
+        }
+    }
+
+    private static void diffEntries(Map<String, String> a, Map<String, String> b,
+                                    Tree.Visitor visitor) {
+        for (Map.Entry<String, String> entry : a.entrySet()) {
+            String after = b.get(entry.getKey());
+            if (!entry.getValue().equals(after)) {
+                visitor.changed(entry.getKey(), entry.getValue(), after);
+            }
+        }
+        for (Map.Entry<String, String> entry : b.entrySet()) {
+            if (!a.containsKey(entry.getKey())) {
+                visitor.changed(entry.getKey(), null, entry.getValue());
+            }
+        }
+    }
+
+    private static int hash(String fileName) {
+        int h = fileName.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    // A trie node. Entries whose hashes agree in this node's five bits with
+    // no other entry's are held inline, as a key and value in slots, in bit
+    // order; the rest are pushed down into children, which follow them. Once
+    // all 32 bits are used up, keys with equal hashes share a node that
+    // lists them in collisions instead.
+    private static final class Node {
+        static final Node EMPTY = new Node(0, 0, new Object[0], null);
+
+        final int dataMap;
+        final int nodeMap;
+        final Object[] slots;
+        final String[] collisions; // alternating keys and values, or null
+
+        Node(int dataMap, int nodeMap, Object[] slots, String[] collisions) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.slots = slots;
+            this.collisions = collisions;
+        }
+
+        String get(String key, int hash, int shift) {
+            if (collisions != null) {
+                for (int i = 0; i < collisions.length; i += 2) {
+                    if (collisions[i].equals(key)) {
+                        return collisions[i + 1];
+                    }
+                }
+                return null;
+            }
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                return key.equals(slots[i]) ? (String) slots[i + 1] : null;
+            } else if ((nodeMap & bit) != 0) {
+                return child(bit).get(key, hash, shift + BITS);
+            }
+            return null;
+        }
+
+        // Returns this node with KEY mapped to VALUE, setting GROWN[0] to 1
+        // if KEY is new.
+        Node plus(String key, String value, int hash, int shift, int[] grown) {
+            if (collisions != null) {
+                for (int i = 0; i < collisions.length; i += 2) {
+                    if (collisions[i].equals(key)) {
+                        if (collisions[i + 1].equals(value)) {
+                            return this;
+                        }
+                        String[] copy = collisions.clone();
+                        copy[i + 1] = value;
+                        return new Node(0, 0, null, copy);
+                    }
+                }
+                String[] copy = Arrays.copyOf(collisions, collisions.length + 2);
+                copy[collisions.length] = key;
+                copy[collisions.length + 1] = value;
+                grown[0] = 1;
+                return new Node(0, 0, null, copy);
+            }
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int i = dataIndex(bit);
+                String other = (String) slots[i];
+                if (other.equals(key)) {
+                    if (slots[i + 1].equals(value)) {
+                        return this;
+                    }
+                    Object[] copy = slots.clone();
+                    copy[i + 1] = value;
+                    return new Node(dataMap, nodeMap, copy, null);
+                }
+                Node pair = pair(other, (String) slots[i + 1], hash(other),
+                        key, value, hash, shift + BITS);
+                grown[0] = 1;
+                return withoutData(bit).withChild(bit, pair);
+            } else if ((nodeMap & bit) != 0) {
+                Node sub = child(bit);
+                Node newSub = sub.plus(key, value, hash, shift + BITS, grown);
+                return newSub == sub ? this : replaceChild(bit, newSub);
+            }
+            grown[0] = 1;
+            return withData(bit, key, value);
+        }
+
+        // Returns this node without KEY, or this node itself if KEY is absent.
+        Node minus(String key, int hash, int shift) {
+            if (collisions != null) {
+                for (int i = 0; i < collisions.length; i += 2) {
+                    if (collisions[i].equals(key)) {
+                        String[] copy = new String[collisions.length - 2];
+                        System.arraycopy(collisions, 0, copy, 0, i);
+                        System.arraycopy(collisions, i + 2, copy, i, copy.length - i);
+                        return new Node(0, 0, null, copy);
+                    }
+                }
+                return this;
+            }
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                return key.equals(slots[dataIndex(bit)]) ? withoutData(bit) : this;
+            } else if ((nodeMap & bit) != 0) {
+                Node sub = child(bit);
+                Node newSub = sub.minus(key, hash, shift + BITS);
+                if (newSub == sub) {
+                    return this;
+                } else if (newSub.entryCount() == 0 && newSub.nodeMap == 0) {
+                    return withoutChild(bit);
+                } else if (newSub.entryCount() == 1 && newSub.nodeMap == 0) {
+                    // A lone entry moves back up, so that equal maps are
+                    // built of equal nodes whatever order they were made in.
+                    String[] kv = newSub.single();
+                    return withoutChild(bit).withData(bit, kv[0], kv[1]);
+                }
+                return replaceChild(bit, newSub);
+            }
+            return this;
+        }
+
+        void forEach(BiConsumer<String, String> action) {
+            if (collisions != null) {
+                for (int i = 0; i < collisions.length; i += 2) {
+                    action.accept(collisions[i], collisions[i + 1]);
+                }
+                return;
+            }
+            int data = 2 * Integer.bitCount(dataMap);
+            for (int i = 0; i < data; i += 2) {
+                action.accept((String) slots[i], (String) slots[i + 1]);
+            }
+            for (int i = data; i < slots.length; i += 1) {
+                ((Node) slots[i]).forEach(action);
+            }
+        }
+
+        // Returns the key and value of the entry held inline at BIT.
+        String key(int bit) {
+            return (String) slots[dataIndex(bit)];
+        }
+
+        String value(int bit) {
+            return (String) slots[dataIndex(bit) + 1];
+        }
+
+        Node child(int bit) {
+            return (Node) slots[nodeIndex(bit)];
+        }
+
+        private int entryCount() {
+            return collisions != null ? collisions.length / 2 : Integer.bitCount(dataMap);
+        }
+
+        private String[] single() {
+            return collisions != null ? collisions
+                    : new String[]{(String) slots[0], (String) slots[1]};
+        }
+
+        private int dataIndex(int bit) {
+            return 2 * Integer.bitCount(dataMap & (bit - 1));
+        }
+
+        private int nodeIndex(int bit) {
+            return 2 * Integer.bitCount(dataMap) + Integer.bitCount(nodeMap & (bit - 1));
+        }
+
+        private Node withData(int bit, String key, String value) {
+            int i = dataIndex(bit);
+            Object[] copy = new Object[slots.length + 2];
+            System.arraycopy(slots, 0, copy, 0, i);
+            copy[i] = key;
+            copy[i + 1] = value;
+            System.arraycopy(slots, i, copy, i + 2, slots.length - i);
+            return new Node(dataMap | bit, nodeMap, copy, null);
+        }
+
+        private Node withoutData(int bit) {
+            int i = dataIndex(bit);
+            Object[] copy = new Object[slots.length - 2];
+            System.arraycopy(slots, 0, copy, 0, i);
+            System.arraycopy(slots, i + 2, copy, i, copy.length - i);
+            return new Node(dataMap & ~bit, nodeMap, copy, null);
+        }
+
+        private Node withChild(int bit, Node sub) {
+            int i = nodeIndex(bit);
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, i);
+            copy[i] = sub;
+            System.arraycopy(slots, i, copy, i + 1, slots.length - i);
+            return new Node(dataMap, nodeMap | bit, copy, null);
+        }
+
+        private Node withoutChild(int bit) {
+            int i = nodeIndex(bit);
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, i);
+            System.arraycopy(slots, i + 1, copy, i, copy.length - i);
+            return new Node(dataMap, nodeMap & ~bit, copy, null);
+        }
+
+        private Node replaceChild(int bit, Node sub) {
+            Object[] copy = slots.clone();
+            copy[nodeIndex(bit)] = sub;
+            return new Node(dataMap, nodeMap, copy, null);
+        }
+
+        // Returns a node holding just two keys, whose hashes agree below
+        // SHIFT.
+        private static Node pair(String k1, String v1, int h1, String k2, String v2, int h2,
+                                 int shift) {
+            if (shift >= Integer.SIZE) {
+                return new Node(0, 0, null, new String[]{k1, v1, k2, v2});
+            }
+            int b1 = bit(h1, shift);
+            int b2 = bit(h2, shift);
+            if (b1 == b2) {
+                return new Node(0, b1, new Object[]{pair(k1, v1, h1, k2, v2, h2, shift + BITS)},
+                        null);
+            }
+            Object[] slots = Integer.compareUnsigned(b1, b2) < 0 ? new Object[]{k1, v1, k2, v2}
+                    : new Object[]{k2, v2, k1, v1};
+            return new Node(b1 | b2, 0, slots, null);
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+    }
+}
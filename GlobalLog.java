@@ -0,0 +1,151 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Append-only log of every commit ever made. gl.idx holds one fixed-size
+// record per commit (hash, timestamp, and the offset and length of its
+// message in gl.msg), so any range of entries can be read through the
+// memory-mapped files without scanning the rest.
+public class GlobalLog {
+    private static final String LOG_DIR = ".gitlet/global-log/";
+    private static final String INDEX_FILE = LOG_DIR + "gl.idx";
+    private static final String MESSAGE_FILE = LOG_DIR + "gl.msg";
+    private static final int INDEX_MAGIC = 0x474c4731; // "GLG1"
+    private static final int HEADER_SIZE = 4;
+    private static final int HASH_SIZE = 20;
+    private static final int RECORD_SIZE = HASH_SIZE + 8 + 8 + 4;
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    private MappedByteBuffer records;
+    private MappedByteBuffer messages;
+    private int count;
+
+    // Builds the log from the commit objects for repositories that predate it.
+    public GlobalLog() {
+        if (!new File(INDEX_FILE).exists()) {
+            rebuild();
+        }
+        records = map(INDEX_FILE);
+        messages = map(MESSAGE_FILE);
+        if (records.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("Corrupt global log.");
+        }
+        count = (records.capacity() - HEADER_SIZE) / RECORD_SIZE;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Returns the position of the first entry made at or after TIMESTAMP.
+    public int firstSince(long timestamp) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamp(mid) < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Prints the entries at positions FROM (inclusive) to TO (exclusive) in
+    // the order they were made.
+    public void print(int from, int to) {
+        byte[] hash = new byte[HASH_SIZE];
+        for (int pos = Math.max(0, from); pos < Math.min(to, count); pos += 1) {
+            int base = HEADER_SIZE + pos * RECORD_SIZE;
+            records.get(base, hash);
+            long msgOffset = records.getLong(base + HASH_SIZE + 8);
+            byte[] msg = new byte[records.getInt(base + HASH_SIZE + 16)];
+            messages.get((int) msgOffset, msg);
+            System.out.println("===");
+            System.out.println("Commit " + Utils.bytesToHex(hash, 0, HASH_SIZE));
+            System.out.println(DATE_FORMAT.format(Instant.ofEpochSecond(timestamp(pos))));
+            System.out.println(new String(msg, StandardCharsets.UTF_8));
+            System.out.println();
+        }
+    }
+
+    // Appends an entry for COMMIT. Repositories that predate the log have it
+    // built from the commit objects first, which covers COMMIT if it is
+    // stored already.
+    public static void append(Commit commit) {
+        if (!new File(INDEX_FILE).exists()) {
+            rebuild();
+            if (new File(".gitlet/commits/" + commit.getOwnHash() + ".txt").exists()) {
+                return;
+            }
+        }
+        byte[] msg = commit.getMessage().getBytes(StandardCharsets.UTF_8);
+        try (FileChannel msgOut = FileChannel.open(Paths.get(MESSAGE_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileChannel indexOut = FileChannel.open(Paths.get(INDEX_FILE),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long msgOffset = msgOut.size();
+            msgOut.write(ByteBuffer.wrap(msg), msgOffset);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+            record.put(Utils.hexToBytes(commit.getOwnHash())).putLong(commit.getTimestamp());
+            record.putLong(msgOffset).putInt(msg.length).flip();
+            // Drops what is left of a record whose write was interrupted.
+            long end = indexOut.size() - (indexOut.size() - HEADER_SIZE) % RECORD_SIZE;
+            indexOut.truncate(end);
+            indexOut.write(record, end);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Rewrites the log from every commit in .gitlet/commits, oldest first.
+    public static void rebuild() {
+        List<Commit> commits = new ArrayList<>();
+        for (String fileName : Utils.plainFilenamesIn(".gitlet/commits")) {
+            commits.add(SerializeUtils.readCommit(".gitlet/commits/" + fileName));
+        }
+        commits.sort(Comparator.comparingLong(Commit::getTimestamp));
+        new File(LOG_DIR).mkdirs();
+        new File(INDEX_FILE).delete();
+        new File(MESSAGE_FILE).delete();
+        try (FileChannel indexOut = FileChannel.open(Paths.get(INDEX_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            indexOut.write(ByteBuffer.allocate(HEADER_SIZE).putInt(INDEX_MAGIC).flip());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        for (Commit c : commits) {
+            append(c);
+        }
+    }
+
+    private long timestamp(int pos) {
+        return records.getLong(HEADER_SIZE + pos * RECORD_SIZE + HASH_SIZE);
+    }
+
+    private static MappedByteBuffer map(String fileName) {
+        Path path = Paths.get(fileName);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+// Write-ahead journal that makes each command's changes atomic and durable
+// with a single fsync. Writes to refs, HEAD and the stage are held in memory,
+// and reads see them, until commit() writes one record to .gitlet/journal
+// holding the old and new contents of every such file, the bytes of every
+// commit the command stored and the names of the blobs it added. Commit
+// files and blobs are written as usual, unforced, since nothing can refer to
+// them until the refs are replaced. One sync of the file system then makes
+// the record and them durable together, and only then are the files
+// replaced, each by a rename. If a command dies, recover() finishes a record
+// that reached the disk whole, or puts the old contents back if a blob it
+// names did not survive, and drops one that did not.
+//
+// Commands may run at once on one repository. Objects need no locking, being
+// named by their contents, but committing a record is done holding a lock
+// on the file .gitlet/lock, and is a compare-and-swap: if any file the
+// command changes no longer holds what the command first read from it,
+// another command got there first, and nothing is applied. Other shared
+// files that are rewritten or appended to in place are changed under the
+// same lock, by way of onCommit() or withLock().
+public class Journal {
+    private static final String JOURNAL_FILE = ".gitlet/journal";
+    private static final String APPLY_FILE = ".gitlet/journal-apply.tmp";
+    private static final String LOCK_FILE = ".gitlet/lock";
+    // How long to wait for another command to release the lock.
+    private static final long LOCK_TIMEOUT_MILLIS = 10000;
+    private static final int JOURNAL_MAGIC = 0x474c4a31; // "GLJ1"
+    private static final byte UPDATE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte BLOB = 3;
+
+    // New contents of files changed by this command, by path; null means
+    // deleted.
+    private static final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<>();
+    // Contents of the files this command has read or changed as it first
+    // found them, null for none. The commit fails unless the files it
+    // changes still hold these, which also undo it.
+    private static final HashMap<String, byte[]> expected = new HashMap<>();
+    // Commit files stored by this command, by path.
+    private static final LinkedHashMap<String, byte[]> commits = new LinkedHashMap<>();
+    private static final List<String> blobs = new ArrayList<>();
+    // Work to do under the lock once the commit is sure to go ahead.
+    private static final List<Runnable> tasks = new ArrayList<>();
+    // Work to do once the commit has gone ahead, outside the lock.
+    private static final List<Runnable> after = new ArrayList<>();
+    // False once "sync -f" has failed, so that it is not tried again.
+    private static boolean syncfs = true;
+    // Held by the thread holding the lock file, which it takes on first entry.
+    private static final ReentrantLock HELD = new ReentrantLock();
+    // The lock on the lock file and the channel it was taken through, while
+    // HELD is held.
+    private static FileChannel lockChannel;
+    private static FileLock fileLock;
+
+    // Replaces the contents of the file PATH when the command commits.
+    public static synchronized void write(String path, byte[] contents) {
+        String key = key(path);
+        observe(key);
+        pending.put(key, contents);
+    }
+
+    // Deletes the file PATH when the command commits. Returns false if it
+    // does not exist.
+    public static synchronized boolean delete(String path) {
+        if (!exists(path)) {
+            return false;
+        }
+        write(path, null);
+        return true;
+    }
+
+    // Returns the contents of PATH as this command has left it, or null if
+    // there is no such file.
+    public static synchronized byte[] read(String path) {
+        String key = key(path);
+        return pending.containsKey(key) ? pending.get(key) : observe(key);
+    }
+
+    public static synchronized boolean exists(String path) {
+        return read(path) != null;
+    }
+
+    // Returns the sorted names of the files in DIR as this command has left it.
+    public static synchronized List<String> list(String dir) {
+        TreeSet<String> names = new TreeSet<>();
+        List<String> onDisk = Utils.plainFilenamesIn(dir);
+        if (onDisk != null) {
+            names.addAll(onDisk);
+        }
+        Path dirKey = Paths.get(key(dir));
+        for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+            Path path = Paths.get(entry.getKey());
+            if (dirKey.equals(path.getParent())) {
+                if (entry.getValue() == null) {
+                    names.remove(path.getFileName().toString());
+                } else {
+                    names.add(path.getFileName().toString());
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    // Notes that the commit file PATH was stored with CONTENTS, so that the
+    // record can restore it.
+    public static synchronized void recordCommit(String path, byte[] contents) {
+        commits.put(key(path), contents);
+    }
+
+    // Notes that the blob HASH was added to the object store.
+    public static synchronized void recordBlob(String hash) {
+        blobs.add(hash);
+    }
+
+    // Runs TASK while this command commits, holding the lock, once the files
+    // it changes have been replaced and before the record is dropped. Appends
+    // to the indexes go here, so that they neither interleave with another
+    // command's nor record a commit whose branch was never moved. A command
+    // that dies before its tasks finish leaves its record, and recover()
+    // has the indexes rebuilt, so tasks need not survive a crash.
+    public static synchronized void onCommit(Runnable task) {
+        tasks.add(task);
+    }
+
+    // Runs TASK once this command has committed, after the lock is released,
+    // and not at all if the commit fails. Changes to the working files go
+    // here: they cannot be taken back, so they wait until the refs and stage
+    // that describe them are sure to be replaced, and they are made without
+    // keeping other commands waiting on the lock.
+    public static synchronized void afterCommit(Runnable task) {
+        after.add(task);
+    }
+
+    // Makes this command's changes durable and applies them, then runs the
+    // afterCommit() tasks, unless another command has changed one of the same
+    // files since this one read it, in which case nothing is applied or run
+    // and false is returned.
+    public static boolean commit() {
+        List<Runnable> then;
+        synchronized (Journal.class) {
+            then = new ArrayList<>(after);
+            try {
+                if (!pending.isEmpty()) {
+                    lock();
+                    try {
+                        if (!commitLocked()) {
+                            return false;
+                        }
+                    } finally {
+                        unlock();
+                    }
+                }
+            } finally {
+                clear();
+            }
+        }
+        for (Runnable task : then) {
+            task.run();
+        }
+        return true;
+    }
+
+    private static boolean commitLocked() {
+        for (String key : pending.keySet()) {
+            if (!Arrays.equals(readFile(key), expected.get(key))) {
+                return false;
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(JOURNAL_MAGIC);
+            for (Map.Entry<String, byte[]> entry : pending.entrySet()) {
+                out.writeByte(UPDATE);
+                SerializeUtils.writeString(out, entry.getKey());
+                writeContents(out, expected.get(entry.getKey()));
+                writeContents(out, entry.getValue());
+            }
+            for (Map.Entry<String, byte[]> entry : commits.entrySet()) {
+                out.writeByte(COMMIT);
+                SerializeUtils.writeString(out, entry.getKey());
+                writeContents(out, entry.getValue());
+            }
+            for (String hash : blobs) {
+                out.writeByte(BLOB);
+                SerializeUtils.writeString(out, hash);
+            }
+            out.writeByte(0);
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            out.writeLong(crc.getValue());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Internal error encoding journal.");
+        }
+        try (FileChannel journal = FileChannel.open(Paths.get(JOURNAL_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            journal.write(ByteBuffer.wrap(bytes.toByteArray()));
+            barrier(journal);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        apply(pending);
+        for (Runnable task : tasks) {
+            task.run();
+        }
+        new File(JOURNAL_FILE).delete();
+        return true;
+    }
+
+    // Makes the record in JOURNAL, and the objects and commit files written
+    // before it, durable with a single sync of the whole file system, which
+    // "sync -f" does by way of syncfs(2). Where that is not to be had, the
+    // record alone is forced; a blob that is then lost is caught by
+    // recover(), which undoes a record naming one.
+    private static void barrier(FileChannel journal) throws IOException {
+        Metrics.count("fsyncs", 1);
+        if (syncfs) {
+            try {
+                Process sync = new ProcessBuilder("sync", "-f", JOURNAL_FILE)
+                        .redirectErrorStream(true).start();
+                sync.getInputStream().transferTo(OutputStream.nullOutputStream());
+                if (sync.waitFor() == 0) {
+                    return;
+                }
+            } catch (IOException excp) {
+                // No sync command; fall through and stop trying it.
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+            syncfs = false;
+        }
+        journal.force(true);
+    }
+
+    // Forgets this command's changes without applying them.
+    public static synchronized void abort() {
+        clear();
+    }
+
+    // Finishes or undoes the command whose record is in the journal, if a
+    // command died after writing it. OBJECTS is checked for the blobs the
+    // record names. If the record stored commits, REINDEX is run in place of
+    // the onCommit() tasks, which may have run in part or not at all.
+    public static void recover(ObjectStore objects, Runnable reindex) {
+        if (new File(JOURNAL_FILE).exists()) {
+            withLock(() -> recoverLocked(objects, reindex));
+        }
+    }
+
+    private static void recoverLocked(ObjectStore objects, Runnable reindex) {
+        File file = new File(JOURNAL_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(file));
+        LinkedHashMap<String, byte[]> undo = new LinkedHashMap<>();
+        LinkedHashMap<String, byte[]> redo = new LinkedHashMap<>();
+        LinkedHashMap<String, byte[]> stored = new LinkedHashMap<>();
+        boolean blobsIntact = true;
+        if (!intact(in)) {
+            file.delete();
+            return;
+        }
+        in.position(4);
+        for (byte kind = in.get(); kind != 0; kind = in.get()) {
+            String name = SerializeUtils.readString(in);
+            if (kind == UPDATE) {
+                undo.put(name, readContents(in));
+                redo.put(name, readContents(in));
+            } else if (kind == COMMIT) {
+                stored.put(name, readContents(in));
+            } else if (kind == BLOB && !objects.intact(name)) {
+                blobsIntact = false;
+            }
+        }
+        apply(stored);
+        if (blobsIntact) {
+            apply(redo);
+        } else {
+            apply(undo);
+            System.out.println("An interrupted command lost data and was undone.");
+        }
+        if (!stored.isEmpty()) {
+            reindex.run();
+        }
+        file.delete();
+    }
+
+    // Runs TASK holding the repository lock, waiting for another command to
+    // release it if need be. The lock is reentrant, so TASK may commit.
+    public static void withLock(Runnable task) {
+        lock();
+        try {
+            task.run();
+        } finally {
+            unlock();
+        }
+    }
+
+    private static void lock() {
+        HELD.lock();
+        if (HELD.getHoldCount() == 1) {
+            try {
+                lockFile();
+            } catch (RuntimeException excp) {
+                HELD.unlock();
+                throw excp;
+            }
+        }
+    }
+
+    private static void unlock() {
+        try {
+            if (HELD.getHoldCount() == 1) {
+                unlockFile();
+            }
+        } finally {
+            HELD.unlock();
+        }
+    }
+
+    // Takes an exclusive lock on the lock file, creating it if need be. The
+    // lock belongs to the open channel, so the system drops it when this
+    // process exits, however it exits, and no stale lock is ever left.
+    private static void lockFile() {
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT_MILLIS;
+        try {
+            FileChannel channel = FileChannel.open(Paths.get(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                for (long wait = 1;; wait = Math.min(wait * 2, 100)) {
+                    fileLock = channel.tryLock();
+                    if (fileLock != null) {
+                        lockChannel = channel;
+                        return;
+                    }
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IllegalArgumentException("Timed out waiting for "
+                                + LOCK_FILE + ".");
+                    }
+                    Thread.sleep(wait);
+                }
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("Interrupted waiting for " + LOCK_FILE + ".");
+            } finally {
+                if (fileLock == null) {
+                    channel.close();
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Releases the lock taken by lockFile(). The file itself stays, as
+    // another command may already be waiting on it.
+    private static void unlockFile() {
+        try {
+            lockChannel.close();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            fileLock = null;
+            lockChannel = null;
+        }
+    }
+
+    // Returns true if IN holds a whole record whose checksum matches.
+    private static boolean intact(ByteBuffer in) {
+        if (in.remaining() < 13 || in.getInt(0) != JOURNAL_MAGIC) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(in.array(), 0, in.limit() - 8);
+        return crc.getValue() == in.getLong(in.limit() - 8);
+    }
+
+    // Replaces each file named in CHANGES with its contents by way of a
+    // rename, or deletes it if they are null.
+    private static void apply(Map<String, byte[]> changes) {
+        Path tmp = Paths.get(APPLY_FILE);
+        try {
+            for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+                Path target = Paths.get(change.getKey());
+                if (change.getValue() == null) {
+                    Files.deleteIfExists(target);
+                } else {
+                    Files.write(tmp, change.getValue());
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private static void clear() {
+        pending.clear();
+        expected.clear();
+        commits.clear();
+        blobs.clear();
+        tasks.clear();
+        after.clear();
+    }
+
+    // Returns PATH relative to the working directory, so that the same file
+    // always has the same key.
+    private static String key(String path) {
+        Path cwd = Paths.get("").toAbsolutePath();
+        return cwd.relativize(Paths.get(path).toAbsolutePath()).normalize().toString();
+    }
+
+    // Returns the contents of the file KEY as this command first found it.
+    private static byte[] observe(String key) {
+        if (!expected.containsKey(key)) {
+            expected.put(key, readFile(key));
+        }
+        return expected.get(key);
+    }
+
+    private static byte[] readFile(String path) {
+        File file = new File(path);
+        return file.isFile() ? Utils.readContents(file) : null;
+    }
+
+    private static void writeContents(DataOutputStream out, byte[] contents)
+            throws IOException {
+        out.writeInt(contents == null ? -1 : contents.length);
+        if (contents != null) {
+            out.write(contents);
+        }
+    }
+
+    private static byte[] readContents(ByteBuffer in) {
+        int len = in.getInt();
+        if (len < 0) {
+            return null;
+        }
+        byte[] contents = new byte[len];
+        in.get(contents);
+        return contents;
+    }
+}
@@ -1,5 +1,9 @@
 package gitlet;
 
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Driver class for Gitlet, the tiny stupid version-control system.
  *
@@ -7,13 +11,80 @@ package gitlet;
  */
 public class Main {
 
+    /**
+     * Commands that may simply be run again when another command changes the
+     * same refs or stage first, since they change the working files only
+     * once they have committed.
+     */
+    private static final Set<String> RETRIED = Set.of("add", "commit", "branch", "rm-branch",
+            "rm", "checkout", "reset", "merge");
+    /** Number of tries a retried command gets. */
+    private static final int ATTEMPTS = 20;
+
     /**
      * Usage: java gitlet.Main ARGS, where ARGS contains
      * <COMMAND> <OPERAND> ....
      */
     public static void main(String... args) {
+        if (args.length == 1 && args[0].equals("daemon")) {
+            Daemon.serve();
+        } else if (!Daemon.forward(args)) {
+            if (Daemon.isStop(args)) {
+                System.out.println("No daemon is running.");
+            } else {
+                run(new Repo(), args);
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Runs the command in ARGS against R, timing it and writing out the
+     * trace when GITLET_TRACE is set.  If another command changes the
+     * same refs or stage while it runs, a command in RETRIED is run again
+     * from a fresh view of the repository, and any other is abandoned.
+     */
+    static void run(Repo r, String... args) {
+        Metrics.Span span = Metrics.span(args.length == 0 ? "gitlet" : args[0]);
+        try (span) {
+            int attempts = args.length > 0 && RETRIED.contains(args[0]) ? ATTEMPTS : 1;
+            for (int attempt = 1; ; attempt += 1) {
+                dispatch(r, args);
+                if (Journal.commit()) {
+                    break;
+                } else if (attempt == attempts) {
+                    System.out.println("Another command changed the repository while"
+                            + " this one ran; its changes were not saved.");
+                    break;
+                }
+                Metrics.count("retries", 1);
+                backOff(attempt);
+                r.reload();
+            }
+        } catch (RuntimeException excp) {
+            Journal.abort();
+            throw excp;
+        } finally {
+            Metrics.dump();
+        }
+    }
 
-        Repo r = new Repo();
+    /**
+     * Sleeps for a random time growing with ATTEMPT, so that commands that
+     * collided do not collide again.
+     */
+    private static void backOff(int attempt) {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(1, 2 + 4 * attempt));
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Carries out the command in ARGS against R.
+     */
+    private static void dispatch(Repo r, String... args) {
         int inputLength = args.length;
         if (inputLength == 0) {
             System.out.println("Please enter a command.");
@@ -26,8 +97,10 @@ public class Main {
                     break;
                 }
                 case "add": {
-                    if (inputChecker(2, args)) {
-                        r.add(args[1]);
+                    if (args.length < 2) {
+                        System.out.println("Incorrect Operands");
+                    } else {
+                        r.add(Arrays.copyOfRange(args, 1, args.length));
                     }
                     break;
                 }
@@ -44,17 +117,21 @@ public class Main {
                     break;
                 }
                 case "log":
-                    if (inputChecker(1, args)) {
+                    if (args.length == 3 && args[1].equals("--")) {
+                        r.log(args[2]);
+                    } else if (inputChecker(1, args)) {
                         r.log();
                     }
                     break;
                 case "global-log":
-                    if (inputChecker(1, args)) {
-                        r.global();
-                    }
+                    r.global(Arrays.copyOfRange(args, 1, args.length));
                     break;
                 case "find": {
-                    r.find(args[1]);
+                    if (args.length == 3 && args[1].equals("--word")) {
+                        r.findWord(args[2]);
+                    } else if (inputChecker(2, args)) {
+                        r.find(args[1]);
+                    }
                     break;
                 }
                 case "status": {
@@ -102,11 +179,38 @@ public class Main {
                     break;
                 }
 
+                case "diff": {
+                    if (args.length > 3) {
+                        System.out.println("Incorrect Operands");
+                    } else {
+                        r.diff(Arrays.copyOfRange(args, 1, args.length));
+                    }
+                    break;
+                }
+
+                case "reindex": {
+                    if (inputChecker(1, args)) {
+                        r.reindex();
+                    }
+                    break;
+                }
+
+                case "gc": {
+                    r.gc(Arrays.copyOfRange(args, 1, args.length));
+                    break;
+                }
+
+                case "repack": {
+                    if (inputChecker(1, args)) {
+                        r.repack();
+                    }
+                    break;
+                }
+
                 default:
                     System.out.println("No command with that name exists.");
             }
         }
-        System.exit(0);
     }
 
     /*
@@ -0,0 +1,121 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// On-disk index from commit messages, and from the lower-cased words in them,
+// to commit ids. Keys are hashed into 256 append-only bucket files of fixed
+// 40-byte records (key hash, commit id), so a lookup reads one bucket and
+// never touches a commit object.
+public class MessageIndex {
+    private static final String INDEX_DIR = ".gitlet/message-index/";
+    private static final int HASH_SIZE = 20;
+    private static final int RECORD_SIZE = 2 * HASH_SIZE;
+
+    // Builds the index for repositories that predate it.
+    public MessageIndex() {
+        if (!new File(INDEX_DIR).exists()) {
+            rebuild();
+        }
+    }
+
+    // Returns the ids of the commits whose message is exactly MSG.
+    public List<String> findMessage(String msg) {
+        return lookup("m" + msg);
+    }
+
+    // Returns the ids of the commits whose message contains the word WORD,
+    // ignoring case.
+    public List<String> findWord(String word) {
+        return lookup("w" + word.toLowerCase(Locale.ROOT));
+    }
+
+    // Adds COMMIT's message and each distinct word in it, unless it is indexed
+    // already, as it is when opening the index rebuilt it.
+    public void add(Commit commit) {
+        if (!findMessage(commit.getMessage()).contains(commit.getOwnHash())) {
+            index(commit);
+        }
+    }
+
+    // Adds COMMIT's message and words without checking for them, for rebuild,
+    // which starts from an empty index.
+    private void index(Commit commit) {
+        byte[] id = Utils.hexToBytes(commit.getOwnHash());
+        append("m" + commit.getMessage(), id);
+        for (String word : words(commit.getMessage())) {
+            append("w" + word, id);
+        }
+    }
+
+    // Rewrites the index from every commit in .gitlet/commits.
+    public static void rebuild() {
+        File dir = new File(INDEX_DIR);
+        if (dir.exists()) {
+            for (File bucket : dir.listFiles()) {
+                bucket.delete();
+            }
+        }
+        dir.mkdirs();
+        MessageIndex index = new MessageIndex();
+        for (String fileName : Utils.plainFilenamesIn(".gitlet/commits")) {
+            index.index(SerializeUtils.readCommit(".gitlet/commits/" + fileName));
+        }
+    }
+
+    private static Set<String> words(String msg) {
+        Set<String> result = new LinkedHashSet<>();
+        for (String word : msg.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                result.add(word);
+            }
+        }
+        return result;
+    }
+
+    private List<String> lookup(String key) {
+        byte[] keyHash = Utils.hexToBytes(Utils.sha1(key));
+        List<String> result = new ArrayList<>();
+        File bucket = bucketFile(keyHash);
+        if (!bucket.exists()) {
+            return result;
+        }
+        byte[] records = Utils.readContents(bucket);
+        for (int base = 0; base + RECORD_SIZE <= records.length; base += RECORD_SIZE) {
+            int i = 0;
+            while (i < HASH_SIZE && records[base + i] == keyHash[i]) {
+                i += 1;
+            }
+            if (i == HASH_SIZE) {
+                result.add(Utils.bytesToHex(records, base + HASH_SIZE, HASH_SIZE));
+            }
+        }
+        return result;
+    }
+
+    private void append(String key, byte[] id) {
+        byte[] keyHash = Utils.hexToBytes(Utils.sha1(key));
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        record.put(keyHash).put(id);
+        try (OutputStream out = Files.newOutputStream(bucketFile(keyHash).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(record.array());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private File bucketFile(byte[] keyHash) {
+        return Paths.get(INDEX_DIR, Utils.bytesToHex(keyHash, 0, 1)).toFile();
+    }
+}
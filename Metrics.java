@@ -0,0 +1,90 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+// Optional counters and timed spans showing where a command spends its time.
+// Setting GITLET_TRACE to a file name turns them on, and when the command
+// ends everything recorded is written there in the Chrome trace-event JSON
+// format, which chrome://tracing and Perfetto open directly. When it is unset
+// each call costs one test of a constant.
+public class Metrics {
+    private static final String TRACE_FILE = System.getenv("GITLET_TRACE");
+    static final boolean ENABLED = TRACE_FILE != null && !TRACE_FILE.isEmpty();
+    private static final Span NO_SPAN = new Span(null);
+    private static final long PID = ProcessHandle.current().pid();
+    private static final ConcurrentHashMap<String, LongAdder> COUNTERS =
+            new ConcurrentHashMap<>();
+    // Finished spans, already rendered as trace events.
+    private static final ConcurrentLinkedQueue<String> EVENTS = new ConcurrentLinkedQueue<>();
+
+    // Adds AMOUNT to the counter NAME.
+    public static void count(String name, long amount) {
+        if (ENABLED) {
+            COUNTERS.computeIfAbsent(name, k -> new LongAdder()).add(amount);
+        }
+    }
+
+    // Starts timing a span called NAME, which ends when it is closed.
+    public static Span span(String name) {
+        return ENABLED ? new Span(name) : NO_SPAN;
+    }
+
+    // A timed region of a command, used in try-with-resources.
+    public static class Span implements AutoCloseable {
+        private final String name;
+        private final long start;
+
+        private Span(String name) {
+            this.name = name;
+            this.start = name == null ? 0 : System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (name != null) {
+                EVENTS.add(String.format("{\"name\":\"%s\",\"ph\":\"X\",\"ts\":%d,\"dur\":%d,"
+                        + "\"pid\":%d,\"tid\":%d}", escape(name), start / 1000,
+                        (System.nanoTime() - start) / 1000, PID, Thread.currentThread().getId()));
+            }
+        }
+    }
+
+    // Writes the spans and counters recorded since the last call to the trace
+    // file, replacing it, and starts afresh.
+    public static void dump() {
+        if (!ENABLED) {
+            return;
+        }
+        Map<String, Long> totals = new TreeMap<>();
+        COUNTERS.forEach((name, adder) -> totals.put(name, adder.sumThenReset()));
+        StringBuilder counters = new StringBuilder();
+        for (Map.Entry<String, Long> total : totals.entrySet()) {
+            counters.append(counters.length() == 0 ? "" : ",").append('"')
+                    .append(escape(total.getKey())).append("\":").append(total.getValue());
+        }
+        StringBuilder out = new StringBuilder("{\"traceEvents\":[\n");
+        for (String event = EVENTS.poll(); event != null; event = EVENTS.poll()) {
+            out.append(event).append(",\n");
+        }
+        out.append(String.format("{\"name\":\"counters\",\"ph\":\"C\",\"ts\":%d,\"pid\":%d,"
+                + "\"tid\":0,\"args\":{%s}}\n", System.nanoTime() / 1000, PID, counters));
+        out.append("],\"displayTimeUnit\":\"ms\",\"otherData\":{").append(counters).append("}}\n");
+        try {
+            Files.write(Paths.get(TRACE_FILE), out.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException excp) {
+            System.err.println("Could not write trace: " + excp.getMessage());
+        }
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
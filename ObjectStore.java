@@ -0,0 +1,939 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+// Content-addressed storage for blobs. New objects are written loose to
+// .gitlet/blobs/<sha1>.obj, and repack() moves them into an append-only pack
+// file whose sorted index is binary searched through a memory mapping.
+// Loose and packed objects start with a kind byte saying whether the payload
+// is raw, deflated, a delta against another object, or a list of chunks.
+// Loose .txt objects from older repositories are raw and have no kind byte.
+public class ObjectStore {
+    private static final String LOOSE_DIR = ".gitlet/blobs/";
+    private static final String PACK_DIR = ".gitlet/pack/";
+    private static final String PACK_FILE = PACK_DIR + "objects.pack";
+    private static final String INDEX_FILE = PACK_DIR + "objects.idx";
+
+    private static final int PACK_MAGIC = 0x47504b31; // "GPK1"
+    private static final int INDEX_MAGIC = 0x47494431; // "GID1"
+    private static final int HEADER_SIZE = 8;
+    private static final int HASH_SIZE = 20;
+    private static final int ENTRY_SIZE = HASH_SIZE + 16; // hash, offset, length
+
+    static final byte KIND_RAW = 0;
+    static final byte KIND_DEFLATE = 1;
+    // Followed by the base's hash, the chain depth and the deflated delta.
+    static final byte KIND_DELTA = 2;
+    // Followed by the number of chunks and the hash and length of each; the
+    // object is the chunks, themselves objects, end to end.
+    static final byte KIND_CHUNKED = 3;
+    private static final int MAX_DELTA_DEPTH = 10;
+    private static final int MAX_DELTA_SIZE = 16 * 1024 * 1024;
+    private static final long DELTA_CACHE_BYTES = 64L * 1024 * 1024;
+    // Size of the buffer that files are streamed through.
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // Files at least this long are split into content-defined chunks.
+    private static final long CHUNKED_SIZE = chunkedSize();
+
+    private MappedByteBuffer index;
+    private int indexCount;
+    private long indexModified;
+    private FileChannel packChannel;
+    private MappedByteBuffer packMap;
+    private int level = compressionLevel();
+    // Recently rebuilt delta bases, least recently used first.
+    private LinkedHashMap<String, byte[]> deltaCache = new LinkedHashMap<>(16, 0.75f, true);
+    private long deltaCacheBytes;
+
+    // Drops the pack mappings if another process has repacked since they
+    // were opened.
+    public synchronized void refresh() {
+        if (index != null && new File(INDEX_FILE).lastModified() != indexModified) {
+            close();
+        }
+    }
+
+    // Returns true if an object named HASH is stored loose or packed.
+    public boolean contains(String hash) {
+        return looseFile(hash).exists() || legacyFile(hash).exists() || lookup(hash) != null;
+    }
+
+    // Stores CONTENTS under HASH unless the object already exists.
+    public void put(String hash, byte[] contents) {
+        if (contains(hash)) {
+            return;
+        }
+        new File(LOOSE_DIR).mkdirs();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(Paths.get(LOOSE_DIR), "incoming", ".tmp");
+            try (OutputStream out = objectOutput(Files.newOutputStream(tmp))) {
+                out.write(contents);
+            }
+            Files.move(tmp, looseFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Metrics.count("objects written", 1);
+            Journal.recordBlob(hash);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Stores CONTENTS under HASH, as a delta against the object BASEHASH when
+    // that is much smaller than the contents and the base's own chain is not
+    // already MAX_DELTA_DEPTH long. BASEHASH may be null.
+    public void put(String hash, byte[] contents, String baseHash) {
+        if (contains(hash)) {
+            return;
+        }
+        int depth = baseHash == null || !contains(baseHash) ? MAX_DELTA_DEPTH : depth(baseHash);
+        if (depth >= MAX_DELTA_DEPTH) {
+            put(hash, contents);
+            return;
+        }
+        byte[] delta = Delta.compute(base(baseHash), contents);
+        if (delta.length * 2 >= contents.length) {
+            put(hash, contents);
+            return;
+        }
+        new File(LOOSE_DIR).mkdirs();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(Paths.get(LOOSE_DIR), "incoming", ".tmp");
+            try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                file.write(KIND_DELTA);
+                file.write(Utils.hexToBytes(baseHash));
+                file.write(depth + 1);
+                Deflater deflater = new Deflater(level);
+                try (DeflaterOutputStream out = new DeflaterOutputStream(file, deflater)) {
+                    out.write(delta);
+                } finally {
+                    deflater.end();
+                }
+            }
+            Files.move(tmp, looseFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Metrics.count("objects written", 1);
+            Journal.recordBlob(hash);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Stores the contents of FILE, a new revision of the object BASEHASH, and
+    // returns their SHA1. Files small enough to delta are read whole so they
+    // can be compared with the base; larger ones are streamed by putFile(FILE).
+    public String putFile(File file, String baseHash) {
+        if (file.length() >= CHUNKED_SIZE) {
+            return putChunked(file);
+        }
+        if (baseHash == null || file.length() > MAX_DELTA_SIZE) {
+            return putFile(file);
+        }
+        byte[] contents = Utils.readContents(file);
+        String hash = Utils.sha1(contents);
+        put(hash, contents, baseHash);
+        return hash;
+    }
+
+    // Stores the contents of FILE and returns their SHA1. The file is hashed
+    // and compressed in fixed-size chunks while it is copied to a temporary
+    // file, which is then renamed into place, so files of any size use
+    // bounded memory.
+    public String putFile(File file) {
+        if (file.length() >= CHUNKED_SIZE) {
+            return putChunked(file);
+        }
+        MessageDigest md = newDigest();
+        new File(LOOSE_DIR).mkdirs();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(Paths.get(LOOSE_DIR), "incoming", ".tmp");
+            try (InputStream in = Files.newInputStream(file.toPath());
+                 OutputStream out = objectOutput(Files.newOutputStream(tmp))) {
+                byte[] buf = new byte[CHUNK_SIZE];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    md.update(buf, 0, n);
+                    out.write(buf, 0, n);
+                }
+            }
+            byte[] digest = md.digest();
+            String hash = Utils.bytesToHex(digest, 0, digest.length);
+            if (contains(hash)) {
+                Files.delete(tmp);
+            } else {
+                Files.move(tmp, looseFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                Metrics.count("objects written", 1);
+                Journal.recordBlob(hash);
+            }
+            return hash;
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Stores the contents of FILE as content-defined chunks, each an object of
+    // its own, and a list of them named by the SHA1 of the whole, which it
+    // returns. Chunks already in the store are not written again, so a new
+    // revision of a large file costs only the chunks around its edits.
+    private String putChunked(File file) {
+        MessageDigest md = newDigest();
+        List<String> chunks = new ArrayList<>();
+        List<Integer> lengths = new ArrayList<>();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buf = new byte[2 * Chunker.MAX_SIZE];
+            int start = 0;
+            int end = 0;
+            boolean eof = false;
+            while (!eof || start < end) {
+                if (!eof && end - start < Chunker.MAX_SIZE) {
+                    System.arraycopy(buf, start, buf, 0, end - start);
+                    end -= start;
+                    start = 0;
+                    int n = in.readNBytes(buf, end, buf.length - end);
+                    eof = end + n < buf.length;
+                    md.update(buf, end, n);
+                    end += n;
+                    continue;
+                }
+                int len = Chunker.cut(buf, start, end - start);
+                byte[] chunk = Arrays.copyOfRange(buf, start, start + len);
+                String hash = Utils.sha1(chunk);
+                put(hash, chunk);
+                chunks.add(hash);
+                lengths.add(len);
+                start += len;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] digest = md.digest();
+        String hash = Utils.bytesToHex(digest, 0, digest.length);
+        if (contains(hash)) {
+            return hash;
+        }
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(Paths.get(LOOSE_DIR), "incoming", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.write(KIND_CHUNKED);
+                out.writeInt(chunks.size());
+                for (int i = 0; i < chunks.size(); i += 1) {
+                    out.write(Utils.hexToBytes(chunks.get(i)));
+                    out.writeInt(lengths.get(i));
+                }
+            }
+            Files.move(tmp, looseFile(hash).toPath(), StandardCopyOption.ATOMIC_MOVE);
+            Metrics.count("objects written", 1);
+            Journal.recordBlob(hash);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return hash;
+    }
+
+    // Returns true if the object HASH is stored and can be read back whole:
+    // its contents, streamed rather than held in memory, hash to HASH, or,
+    // for a chunked object, every chunk it lists is present.
+    public boolean intact(String hash) {
+        try {
+            if (!contains(hash)) {
+                return false;
+            } else if (kind(hash) == KIND_CHUNKED) {
+                for (String chunk : references(hash)) {
+                    if (!contains(chunk)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            MessageDigest md = newDigest();
+            try (InputStream in = open(hash)) {
+                byte[] buf = new byte[CHUNK_SIZE];
+                for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                    md.update(buf, 0, n);
+                }
+            }
+            byte[] digest = md.digest();
+            return Utils.bytesToHex(digest, 0, digest.length).equals(hash);
+        } catch (IOException | IllegalArgumentException excp) {
+            return false;
+        }
+    }
+
+    // Returns the SHA1 of the contents of FILE, read in fixed-size chunks.
+    public static String hashFile(File file) {
+        MessageDigest md = newDigest();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            byte[] buf = new byte[CHUNK_SIZE];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] digest = md.digest();
+        return Utils.bytesToHex(digest, 0, digest.length);
+    }
+
+    private static MessageDigest newDigest() {
+        Metrics.count("sha1 calls", 1);
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    // Writes the contents of the object named HASH to TARGET without holding
+    // the whole object in memory.
+    public void copyTo(String hash, File target) {
+        if (target.getParentFile() != null) {
+            target.getParentFile().mkdirs();
+        }
+        try {
+            if (legacyFile(hash).exists()) {
+                Files.copy(legacyFile(hash).toPath(), target.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                return;
+            }
+            long[] entry = looseFile(hash).exists() ? null : lookup(hash);
+            if (entry != null && packedKind(entry) == KIND_RAW) {
+                try (FileChannel in = FileChannel.open(Paths.get(PACK_FILE));
+                     FileChannel out = FileChannel.open(target.toPath(),
+                             StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                             StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long start = entry[0] + 1;
+                    long len = entry[1] - 1;
+                    for (long done = 0; done < len;) {
+                        done += in.transferTo(start + done, len - done, out);
+                    }
+                }
+                return;
+            }
+            try (InputStream in = open(hash)) {
+                Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Returns the contents of the object named HASH.
+    public byte[] get(String hash) {
+        try (InputStream in = open(hash)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Returns a stream over the uncompressed contents of the object named HASH.
+    public InputStream open(String hash) throws IOException {
+        Metrics.count("objects read", 1);
+        if (legacyFile(hash).exists()) {
+            return Files.newInputStream(legacyFile(hash).toPath());
+        }
+        InputStream in;
+        if (looseFile(hash).exists()) {
+            in = new BufferedInputStream(Files.newInputStream(looseFile(hash).toPath()));
+        } else {
+            long[] entry = lookup(hash);
+            if (entry == null) {
+                throw new IllegalArgumentException("No object " + hash + " in the store.");
+            }
+            in = packedStream(entry[0], entry[1]);
+        }
+        int kind = in.read();
+        if (kind == KIND_DELTA) {
+            String baseHash = Utils.bytesToHex(in.readNBytes(HASH_SIZE), 0, HASH_SIZE);
+            in.read();
+            try (InputStream delta = new InflaterInputStream(in)) {
+                return new ByteArrayInputStream(Delta.apply(base(baseHash), delta.readAllBytes()));
+            }
+        } else if (kind == KIND_DEFLATE) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, CHUNK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    inflater.end();
+                }
+            };
+        } else if (kind == KIND_RAW) {
+            return in;
+        } else if (kind == KIND_CHUNKED) {
+            List<String> chunks = readChunks(in);
+            in.close();
+            Iterator<String> next = chunks.iterator();
+            return new SequenceInputStream(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return next.hasNext();
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    try {
+                        return open(next.next());
+                    } catch (IOException excp) {
+                        throw new IllegalArgumentException(excp.getMessage());
+                    }
+                }
+            });
+        }
+        in.close();
+        throw new IllegalArgumentException("Unknown kind of object " + hash + ".");
+    }
+
+    // Returns the contents of the object HASH for use as a delta base,
+    // keeping recently used bases in a bounded cache.
+    private synchronized byte[] base(String hash) {
+        byte[] contents = deltaCache.get(hash);
+        if (contents == null) {
+            contents = get(hash);
+            deltaCache.put(hash, contents);
+            deltaCacheBytes += contents.length;
+            Iterator<byte[]> eldest = deltaCache.values().iterator();
+            while (deltaCacheBytes > DELTA_CACHE_BYTES && eldest.hasNext()) {
+                deltaCacheBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return contents;
+    }
+
+    // Returns true if the object HASH holds more than LIMIT bytes. A chunked
+    // object's size is summed from its chunk list; any other is streamed and
+    // counted, stopping once it passes LIMIT.
+    public boolean largerThan(String hash, long limit) {
+        try {
+            if (legacyFile(hash).exists()) {
+                return legacyFile(hash).length() > limit;
+            }
+            long[] entry = looseFile(hash).exists() ? null : lookup(hash);
+            if (entry == null && !looseFile(hash).exists()) {
+                throw new IllegalArgumentException("No object " + hash + " in the store.");
+            }
+            try (InputStream raw = entry == null
+                    ? new BufferedInputStream(Files.newInputStream(looseFile(hash).toPath()))
+                    : packedStream(entry)) {
+                if (raw.read() == KIND_CHUNKED) {
+                    DataInputStream data = new DataInputStream(raw);
+                    long size = 0;
+                    for (int i = data.readInt(); i > 0; i -= 1) {
+                        data.skipNBytes(HASH_SIZE);
+                        size += data.readInt();
+                    }
+                    return size > limit;
+                }
+            }
+            try (InputStream in = open(hash)) {
+                long size = 0;
+                while (size <= limit) {
+                    long skipped = in.skip(limit + 1 - size);
+                    if (skipped <= 0) {
+                        if (in.read() < 0) {
+                            break;
+                        }
+                        skipped = 1;
+                    }
+                    size += skipped;
+                }
+                return size > limit;
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Returns the kind byte of the stored object HASH.
+    private byte kind(String hash) throws IOException {
+        if (legacyFile(hash).exists()) {
+            return KIND_RAW;
+        }
+        try (InputStream in = looseFile(hash).exists()
+                ? Files.newInputStream(looseFile(hash).toPath()) : packedStream(lookup(hash))) {
+            return (byte) in.read();
+        }
+    }
+
+    // Returns the length of the delta chain ending at object HASH.
+    private int depth(String hash) {
+        if (legacyFile(hash).exists()) {
+            return 0;
+        }
+        try (InputStream in = looseFile(hash).exists()
+                ? Files.newInputStream(looseFile(hash).toPath()) : packedStream(lookup(hash))) {
+            if (in.read() != KIND_DELTA) {
+                return 0;
+            }
+            in.skipNBytes(HASH_SIZE);
+            return in.read();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Appends every loose object to the pack, rewrites the index and deletes
+    // the loose copies. Returns the number of objects that were packed.
+    public int repack() {
+        List<String> loose = Utils.plainFilenamesIn(LOOSE_DIR);
+        if (loose == null || loose.isEmpty()) {
+            return 0;
+        }
+        TreeMap<String, long[]> entries = readIndex();
+        List<String> packedNames = new ArrayList<>();
+        new File(PACK_DIR).mkdirs();
+        try (FileChannel out = FileChannel.open(Paths.get(PACK_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long pos = out.size();
+            if (pos == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(PACK_MAGIC).putInt(1).flip();
+                out.write(header, 0);
+                pos = HEADER_SIZE;
+            }
+            for (String name : loose) {
+                boolean legacy = name.endsWith(".txt");
+                if (!legacy && !name.endsWith(".obj")) {
+                    continue;
+                }
+                String hash = name.substring(0, name.length() - 4);
+                packedNames.add(name);
+                if (entries.containsKey(hash)) {
+                    continue;
+                }
+                try (FileChannel in = FileChannel.open(Paths.get(LOOSE_DIR, name))) {
+                    long len = in.size();
+                    out.position(pos);
+                    if (legacy) {
+                        out.write(ByteBuffer.wrap(new byte[]{KIND_RAW}));
+                    }
+                    for (long done = 0; done < len;) {
+                        done += in.transferTo(done, len - done, out);
+                    }
+                    long entryLen = legacy ? len + 1 : len;
+                    entries.put(hash, new long[]{pos, entryLen});
+                    pos += entryLen;
+                }
+            }
+            out.force(false);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(entries);
+        close();
+        for (String name : packedNames) {
+            new File(LOOSE_DIR + name).delete();
+        }
+        return packedNames.size();
+    }
+
+    // Returns the name of every object in the store, loose or packed.
+    public Set<String> names() {
+        Set<String> result = new HashSet<>(readIndex().keySet());
+        List<String> loose = Utils.plainFilenamesIn(LOOSE_DIR);
+        for (String name : loose == null ? List.<String>of() : loose) {
+            if (name.endsWith(".obj") || name.endsWith(".txt")) {
+                result.add(name.substring(0, name.length() - 4));
+            }
+        }
+        return result;
+    }
+
+    // Returns the names of the loose objects last written at or after CUTOFF,
+    // in milliseconds since the epoch.
+    public Set<String> looseSince(long cutoff) {
+        Set<String> result = new HashSet<>();
+        List<String> loose = Utils.plainFilenamesIn(LOOSE_DIR);
+        for (String name : loose == null ? List.<String>of() : loose) {
+            if ((name.endsWith(".obj") || name.endsWith(".txt"))
+                    && new File(LOOSE_DIR + name).lastModified() >= cutoff) {
+                result.add(name.substring(0, name.length() - 4));
+            }
+        }
+        return result;
+    }
+
+    // Returns the names of the objects that HASH is built from: the base it
+    // is stored as a delta against, or its chunks. The list is empty if HASH
+    // is stored whole or not at all.
+    public List<String> references(String hash) {
+        if (legacyFile(hash).exists()) {
+            return List.of();
+        }
+        long[] entry = looseFile(hash).exists() ? null : lookup(hash);
+        if (entry == null && !looseFile(hash).exists()) {
+            return List.of();
+        }
+        try (InputStream in = entry == null
+                ? new BufferedInputStream(Files.newInputStream(looseFile(hash).toPath()))
+                : packedStream(entry)) {
+            int kind = in.read();
+            if (kind == KIND_DELTA) {
+                return List.of(Utils.bytesToHex(in.readNBytes(HASH_SIZE), 0, HASH_SIZE));
+            } else if (kind == KIND_CHUNKED) {
+                return readChunks(in);
+            }
+            return List.of();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    // Reads the chunk list of a chunked object from IN, just past its kind
+    // byte.
+    private static List<String> readChunks(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int count = data.readInt();
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i += 1) {
+            chunks.add(Utils.bytesToHex(data.readNBytes(HASH_SIZE), 0, HASH_SIZE));
+            data.readInt();
+        }
+        return chunks;
+    }
+
+    // Deletes every object not in LIVE, copying the live packed objects into
+    // a new pack if any packed ones are dead. Returns the number of objects
+    // removed and the bytes they occupied; with DRYRUN nothing is changed.
+    public long[] prune(Set<String> live, boolean dryRun) {
+        long removed = 0;
+        long bytes = 0;
+        List<String> loose = Utils.plainFilenamesIn(LOOSE_DIR);
+        for (String name : loose == null ? List.<String>of() : loose) {
+            File file = new File(LOOSE_DIR + name);
+            if ((name.endsWith(".obj") || name.endsWith(".txt"))
+                    && !live.contains(name.substring(0, name.length() - 4))) {
+                removed += 1;
+                bytes += file.length();
+                if (!dryRun) {
+                    file.delete();
+                }
+            }
+        }
+        TreeMap<String, long[]> entries = readIndex();
+        TreeMap<String, long[]> kept = new TreeMap<>();
+        for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+            if (live.contains(entry.getKey())) {
+                kept.put(entry.getKey(), entry.getValue());
+            } else {
+                removed += 1;
+                bytes += entry.getValue()[1];
+            }
+        }
+        if (!dryRun && kept.size() < entries.size()) {
+            rewritePack(kept);
+        }
+        return new long[]{removed, bytes};
+    }
+
+    // Replaces the pack with one holding only the objects in ENTRIES, whose
+    // offsets are updated to their places in the new pack.
+    private void rewritePack(TreeMap<String, long[]> entries) {
+        Path tmp = Paths.get(PACK_FILE + ".tmp");
+        try (FileChannel in = FileChannel.open(Paths.get(PACK_FILE));
+             FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(PACK_MAGIC).putInt(1).flip();
+            out.write(header);
+            long pos = HEADER_SIZE;
+            for (long[] entry : entries.values()) {
+                for (long done = 0; done < entry[1];) {
+                    done += in.transferTo(entry[0] + done, entry[1] - done, out);
+                }
+                entry[0] = pos;
+                pos += entry[1];
+            }
+            out.force(false);
+        } catch (IOException excp) {
+            tmp.toFile().delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        close();
+        try {
+            Files.move(tmp, Paths.get(PACK_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        writeIndex(entries);
+    }
+
+    // Wraps OUT so that what is written to it is stored as an object: a kind
+    // byte followed by the payload, deflated unless compression is off.
+    private OutputStream objectOutput(OutputStream out) throws IOException {
+        out = new BufferedOutputStream(out, CHUNK_SIZE);
+        if (level == 0) {
+            out.write(KIND_RAW);
+            return out;
+        }
+        out.write(KIND_DEFLATE);
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(out, deflater, CHUNK_SIZE) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                deflater.end();
+            }
+        };
+    }
+
+    // Returns the zlib level set by GITLET_COMPRESSION, from 0 (store raw) to
+    // 9, or the zlib default when it is unset or invalid.
+    private static int compressionLevel() {
+        String setting = System.getenv("GITLET_COMPRESSION");
+        try {
+            int value = Integer.parseInt(setting);
+            if (value >= 0 && value <= 9) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            return Deflater.DEFAULT_COMPRESSION;
+        }
+        return Deflater.DEFAULT_COMPRESSION;
+    }
+
+    // Returns the file length from which GITLET_CHUNKING says to store files
+    // as chunks, 0 meaning never, or 1 MiB when it is unset or invalid.
+    private static long chunkedSize() {
+        String setting = System.getenv("GITLET_CHUNKING");
+        try {
+            long value = Long.parseLong(setting);
+            if (value == 0) {
+                return Long.MAX_VALUE;
+            } else if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException excp) {
+            return 1024 * 1024;
+        }
+        return 1024 * 1024;
+    }
+
+    private File looseFile(String hash) {
+        return new File(LOOSE_DIR + hash + ".obj");
+    }
+
+    private File legacyFile(String hash) {
+        return new File(LOOSE_DIR + hash + ".txt");
+    }
+
+    private byte packedKind(long[] entry) throws IOException {
+        try (InputStream in = packedStream(entry)) {
+            return (byte) in.read();
+        }
+    }
+
+    private InputStream packedStream(long[] entry) throws IOException {
+        return packedStream(entry[0], entry[1]);
+    }
+
+    // Returns a stream over LEN bytes of the pack starting at OFFSET, read
+    // from the mapping when the pack is small enough to map in one piece.
+    private InputStream packedStream(long offset, long len) throws IOException {
+        ByteBuffer mapped = packed(offset, len);
+        if (mapped != null) {
+            return new BufferInputStream(mapped);
+        }
+        InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(PACK_FILE)),
+                CHUNK_SIZE);
+        in.skipNBytes(offset);
+        return in;
+    }
+
+    // An InputStream that reads the remaining bytes of a ByteBuffer.
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buf;
+
+        BufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+
+    // Returns {offset, length} of the packed object HASH, or null.
+    private long[] lookup(String hash) {
+        if (!openIndex()) {
+            return null;
+        }
+        byte[] key = Utils.hexToBytes(hash);
+        int lo = 0;
+        int hi = indexCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, key);
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else if (cmp > 0) {
+                hi = mid - 1;
+            } else {
+                int base = HEADER_SIZE + mid * ENTRY_SIZE + HASH_SIZE;
+                return new long[]{index.getLong(base), index.getLong(base + 8)};
+            }
+        }
+        return null;
+    }
+
+    private int compareAt(int pos, byte[] key) {
+        int base = HEADER_SIZE + pos * ENTRY_SIZE;
+        for (int i = 0; i < HASH_SIZE; i += 1) {
+            int cmp = (index.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private synchronized boolean openIndex() {
+        if (index != null) {
+            return true;
+        }
+        Path path = Paths.get(INDEX_FILE);
+        if (!Files.exists(path)) {
+            return false;
+        }
+        indexModified = path.toFile().lastModified();
+        try (FileChannel in = FileChannel.open(path)) {
+            index = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        if (index.getInt(0) != INDEX_MAGIC) {
+            throw new IllegalArgumentException("Corrupt pack index.");
+        }
+        indexCount = index.getInt(4);
+        return true;
+    }
+
+    // Returns a buffer over LEN bytes of the pack starting at OFFSET, or null
+    // if the pack is too large to map in one piece.
+    private synchronized ByteBuffer packed(long offset, long len) {
+        try {
+            if (packChannel == null) {
+                packChannel = FileChannel.open(Paths.get(PACK_FILE));
+                if (packChannel.size() <= Integer.MAX_VALUE) {
+                    packMap = packChannel.map(FileChannel.MapMode.READ_ONLY,
+                            0, packChannel.size());
+                }
+            }
+            if (packMap == null) {
+                return null;
+            }
+            ByteBuffer slice = packMap.duplicate();
+            slice.position((int) offset).limit((int) (offset + len));
+            return slice.slice();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private TreeMap<String, long[]> readIndex() {
+        TreeMap<String, long[]> entries = new TreeMap<>();
+        if (!openIndex()) {
+            return entries;
+        }
+        byte[] hash = new byte[HASH_SIZE];
+        for (int i = 0; i < indexCount; i += 1) {
+            int base = HEADER_SIZE + i * ENTRY_SIZE;
+            index.get(base, hash);
+            entries.put(Utils.bytesToHex(hash, 0, HASH_SIZE), new long[]{
+                index.getLong(base + HASH_SIZE), index.getLong(base + HASH_SIZE + 8)});
+        }
+        return entries;
+    }
+
+    // Writes ENTRIES, sorted by hash, to a temporary file that then atomically
+    // replaces the index.
+    private void writeIndex(TreeMap<String, long[]> entries) {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + entries.size() * ENTRY_SIZE);
+        out.putInt(INDEX_MAGIC).putInt(entries.size());
+        for (Map.Entry<String, long[]> entry : entries.entrySet()) {
+            out.put(Utils.hexToBytes(entry.getKey()));
+            out.putLong(entry.getValue()[0]).putLong(entry.getValue()[1]);
+        }
+        Path tmp = Paths.get(INDEX_FILE + ".tmp");
+        try {
+            Files.write(tmp, out.array());
+            Files.move(tmp, Paths.get(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    private void close() {
+        try {
+            if (packChannel != null) {
+                packChannel.close();
+            }
+        } catch (IOException excp) {
+            return;
+        } finally {
+            index = null;
+            packChannel = null;
+            packMap = null;
+        }
+    }
+}
@@ -1,26 +1,87 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 
 public class Repo {
+    private static final String FORMAT_VERSION = "2";
+    private static final int CHECKOUT_THREADS = 8;
+    private static final int COMMIT_CACHE_SIZE = 4096;
+    // Head of the branch being merged in, kept until the merge is committed.
+    private static final String MERGE_HEAD = ".gitlet/merge-head.txt";
+    private static final long GC_GRACE_DAYS = 14;
     private String HEAD = "master";
     private StagingArea stage;
     private File workingDir;
+    private ObjectStore objects = new ObjectStore();
+    private CommitGraph graph;
+    private ChangedPaths changedPaths;
+    private StatCache statCache;
+    private MessageIndex messageIndex;
+    private CommitIds commitIds;
+    // Decoded commits by hash, least recently used first.
+    private LinkedHashMap<String, Commit> commitCache =
+            new LinkedHashMap<String, Commit>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Commit> eldest) {
+                    return size() > COMMIT_CACHE_SIZE;
+                }
+            };
 
     public Repo() {
         workingDir = new File(System.getProperty("user.dir"));
+        reload();
+    }
+
+    // Rereads HEAD and the stage, which other processes may have changed, and
+    // reopens the indexes on next use. The object store and commit cache are
+    // kept, since objects never change once written, so a long-lived Repo
+    // stays warm between commands.
+    public void reload() {
+        if (new File(".gitlet").exists()) {
+            Journal.recover(objects, this::rebuildIndexes);
+        }
+        HEAD = "master";
         String pathToHead = ".gitlet/branches/HEAD.txt";
-        if (new File(pathToHead).exists()) {
+        if (Journal.exists(pathToHead)) {
             HEAD = SerializeUtils.readStringFromFile(pathToHead);
         }
+        if (new File(".gitlet").exists() && !Journal.exists(".gitlet/format.txt")) {
+            migrateLegacyObjects();
+        }
         String pathToStage = ".gitlet/staging/stage.txt";
-        if (new File(pathToStage).exists()) {
-            stage = SerializeUtils.deserialize(pathToStage, StagingArea.class);
+        if (Journal.exists(pathToStage)) {
+            stage = SerializeUtils.readStage(pathToStage);
         }
+        objects.refresh();
+        graph = null;
+        changedPaths = null;
+        statCache = null;
+        messageIndex = null;
+        commitIds = null;
     }
 
     public void init() {
@@ -37,9 +98,14 @@ public class Repo {
             new File(".gitlet/global-log").mkdirs();
 
             // Initializes default commit saved to /commits directory with SHA1 as name.
-            Commit initialCommit = new Commit("initial commit", new HashMap<>(), null);
-            SerializeUtils.storeObjectToFile(initialCommit,
+            Commit initialCommit = new Commit("initial commit",
+                    Tree.build(objects, new HashMap<>()), null);
+            SerializeUtils.storeCommit(initialCommit,
                     ".gitlet/commits/" + initialCommit.getOwnHash() + ".txt");
+            CommitGraph.rebuild();
+            MessageIndex.rebuild();
+            CommitIds.rebuild();
+            GlobalLog.rebuild();
 
             // Makes a master branch file in /branches with initial commit SHA1 String as contents.
             String pathToMaster = ".gitlet/branches/master.txt";
@@ -55,7 +121,8 @@ public class Repo {
             // as well as an empty ArrayList of removed files.
             stage = new StagingArea();
             new File(".gitlet/staging/stage.txt");
-            SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
+            SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
+            SerializeUtils.writeStringToFile(FORMAT_VERSION, ".gitlet/format.txt", false);
         }
     }
 
@@ -67,31 +134,89 @@ public class Repo {
         return stage;
     }
 
-    public void add(String fileName) {
-        File toAdd = new File(fileName);
-        File findFile = findFile(fileName, workingDir);
-        if (toAdd.exists()) {
-            byte[] blob = Utils.readContents(toAdd);
-            String blobHash = Utils.sha1(blob);
-            if (getCurrentCommit().getBlobs().get(fileName) != null
-                    && getCurrentCommit().getBlobs().get(fileName).equals(blobHash)) {
-                if (stage.getRemovedFiles().contains(fileName)) {
-                    stage.getRemovedFiles().remove(fileName);
-                    SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
-                }
-                return;
+    // Stages every file named by PATHS, each of which may be a file, a
+    // directory or a glob. Files are hashed and stored in parallel on the
+    // fork-join pool, and the head commit, stage and stat cache are each
+    // read and written once.
+    public void add(String... paths) {
+        List<String> fileNames = expandPaths(paths);
+        if (fileNames == null) {
+            System.out.print("File does not exist.");
+            return;
+        }
+        Commit committed = getCurrentCommit();
+        StatCache cache = statCache();
+        Map<String, String> hashes;
+        Metrics.Span span = Metrics.span("hash and store files");
+        try (span) {
+            hashes = fileNames.parallelStream().collect(
+                    Collectors.toConcurrentMap(f -> f, f -> {
+                        String blobHash = cache.lookup(f, new File(f));
+                        if (blobHash == null || !objects.contains(blobHash)) {
+                            blobHash = objects.putFile(new File(f),
+                                    committed.getBlob(objects, f));
+                        }
+                        return blobHash;
+                    }));
+        }
+        for (String fileName : fileNames) {
+            String blobHash = hashes.get(fileName);
+            cache.record(fileName, new File(fileName), blobHash);
+            stage.getRemovedFiles().remove(fileName);
+            if (blobHash.equals(committed.getBlob(objects, fileName))) {
+                stage.unstage(fileName);
+            } else {
+                stage.add(fileName, blobHash);
+            }
+        }
+        cache.save();
+        SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
+    }
+
+    // Returns the working files named by PATHS, expanding directories and
+    // globs, or null if some path names no file.
+    private List<String> expandPaths(String... paths) {
+        Set<String> result = new TreeSet<>();
+        for (String path : paths) {
+            File file = new File(path);
+            List<String> found = new ArrayList<>();
+            if (file.isFile()) {
+                found.add(normalize(file.toPath()));
+            } else if (file.isDirectory()) {
+                found.addAll(workingFiles(file.toPath(), p -> true));
+            } else if (path.matches(".*[*?\\[{].*")) {
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                found.addAll(workingFiles(Paths.get(""), matcher::matches));
             }
-            if (stage.getRemovedFiles().contains(fileName)) {
-                stage.getRemovedFiles().remove(fileName);
+            if (found.isEmpty()) {
+                return null;
             }
-            Utils.writeContents(new File(".gitlet/blobs/" + blobHash + ".txt"), blob);
-            stage.add(fileName, blobHash);
-            SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
-        } else {
-            System.out.print("File does not exist.");
+            result.addAll(found);
+        }
+        return new ArrayList<>(result);
+    }
+
+    // Returns the files under DIR, outside .gitlet, whose relative paths
+    // satisfy FILTER, in sorted order.
+    private List<String> workingFiles(Path dir, Predicate<Path> filter) {
+        try (Stream<Path> walk = Files.walk(dir.toString().isEmpty() ? Paths.get(".") : dir)) {
+            return walk.filter(p -> Files.isRegularFile(p))
+                    .map(p -> Paths.get(normalize(p)))
+                    .filter(p -> !p.startsWith(".gitlet") && filter.test(p))
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    // Returns PATH relative to the working directory, with "/" separators.
+    private String normalize(Path path) {
+        Path relative = workingDir.toPath().relativize(path.toAbsolutePath().normalize());
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
     public void commitment(String msg) {
         if (stage.getAddedFiles().isEmpty() && stage.getRemovedFiles().isEmpty()) {
             System.out.print("No changes added to the commit.");
@@ -101,114 +226,181 @@ public class Repo {
             return;
         }
         Commit curr = getCurrentCommit();
-        HashMap<String, String> copiedBlobs = (HashMap) curr.getBlobs().clone();
-        ArrayList<String> filesToAdd = new ArrayList<>(stage.getAddedFiles().keySet());
-        for (String fileName : filesToAdd) {
-            copiedBlobs.put(fileName, stage.getAddedFiles().get(fileName));
-        }
+        HashMap<String, String> changes = new HashMap<>();
+        stage.getAddedFiles().forEach(changes::put);
         for (String fileToRemove : stage.getRemovedFiles()) {
-            copiedBlobs.remove(fileToRemove);
+            changes.put(fileToRemove, null);
         }
-        Commit newC = new Commit(msg, copiedBlobs, curr.getOwnHash());
+        String tree = Tree.update(objects, treeOf(curr), changes);
+        String secondParent = Journal.exists(MERGE_HEAD)
+                ? SerializeUtils.readStringFromFile(MERGE_HEAD) : null;
+        Commit newC = new Commit(msg, tree, curr.getOwnHash(), secondParent);
+        SerializeUtils.storeCommit(newC,
+                ".gitlet/commits/" + newC.getOwnHash() + ".txt");
         SerializeUtils.writeStringToFile(newC.getOwnHash(),
                 ".gitlet/branches/" + HEAD + ".txt", false);
-        SerializeUtils.storeObjectToFile(newC,
-                ".gitlet/commits/" + newC.getOwnHash() + ".txt");
+        Journal.onCommit(() -> {
+            Metrics.Span span = Metrics.span("update indexes");
+            try (span) {
+                // Another command may have added to the indexes since they
+                // were loaded. The branch already names NEWC here, so the
+                // graph is opened directly rather than by commitGraph().
+                graph = new CommitGraph();
+                changedPaths = null;
+                messageIndex = null;
+                commitIds = null;
+                if (graph.position(curr.getOwnHash()) == CommitGraph.NONE) {
+                    CommitGraph.rebuild();
+                    graph = new CommitGraph();
+                } else {
+                    graph.append(newC);
+                }
+                new ChangedPaths().append(graph.position(newC.getOwnHash()), changes.keySet());
+                messageIndex().add(newC);
+                commitIds().add(newC.getOwnHash());
+                GlobalLog.append(newC);
+            }
+        });
+        Journal.delete(MERGE_HEAD);
         stage.clear();
-        SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
+        SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
     }
 
     public void rm(String fileName) {
         boolean isStaged = stage.getAddedFiles().containsKey(fileName);
-        Commit curr = getCurrentCommit();
-        boolean isTracked = false;
-        ArrayList<String> committedFiles = new ArrayList<>(curr.getBlobs().keySet());
-        for (String f : committedFiles) {
-            if (f.equals(fileName)) {
-                isTracked = true;
-            }
-        }
+        boolean isTracked = getCurrentCommit().getBlob(objects, fileName) != null;
         if (isTracked) {
-            Utils.restrictedDelete(fileName);
+            Journal.afterCommit(() -> deleteWorkingFile(fileName));
             stage.addToRemovedFiles(fileName);
             if (isStaged) {
-                stage.getAddedFiles().remove(fileName);
+                stage.unstage(fileName);
             }
-            SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
+            SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
         } else if (isStaged) {
-            stage.getAddedFiles().remove(fileName);
-            SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
+            stage.unstage(fileName);
+            SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
         } else {
             System.out.print("No reason to remove the file.");
         }
     }
 
     public void log() {
-        Commit curr = getCurrentCommit();
-        while (curr != null) {
-            System.out.println("===");
-            System.out.println("Commit " + curr.getOwnHash());
-            System.out.println(curr.getDatetime());
-            System.out.println(curr.getMessage());
-            System.out.println();
-            if (curr.getParentHash() != null) {
-                curr = SerializeUtils.deserialize(".gitlet/commits/"
-                        + curr.getParentHash() + ".txt", Commit.class);
-            } else {
-                break;
+        CommitGraph commits = commitGraph();
+        int pos = commits.position(getCurrentCommit().getOwnHash());
+        while (pos != CommitGraph.NONE) {
+            printLogEntry(readCommit(commits.hash(pos)));
+            pos = commits.parent(pos);
+        }
+    }
+
+    // Prints, as log does, the commits that changed PATH, a file or a
+    // directory, from their first parents. Each is printed as soon as it is
+    // found, and commits whose changed-path filters rule PATH out are passed
+    // over without being read.
+    public void log(String path) {
+        String key = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        CommitGraph commits = commitGraph();
+        ChangedPaths filters = changedPaths();
+        int pos = commits.position(getCurrentCommit().getOwnHash());
+        while (pos != CommitGraph.NONE) {
+            int parent = commits.parent(pos);
+            if (pos >= filters.size() || filters.mayHaveChanged(pos, key)) {
+                Commit curr = readCommit(commits.hash(pos));
+                Commit before = parent == CommitGraph.NONE ? null
+                        : readCommit(commits.hash(parent));
+                boolean[] changed = new boolean[1];
+                changed(before, curr, (f, x, y) -> {
+                    changed[0] |= f.equals(key) || f.startsWith(key + "/");
+                });
+                if (changed[0]) {
+                    printLogEntry(curr);
+                }
             }
+            pos = parent;
         }
     }
 
-    public void global() {
-        File gl = new File(".gitlet/global-log/gl.txt");
-        try (BufferedReader br = new BufferedReader(new FileReader(gl))) {
-            String line = null;
-            while ((line = br.readLine()) != null) {
-                System.out.println(line);
+    private void printLogEntry(Commit c) {
+        System.out.println("===");
+        System.out.println("Commit " + c.getOwnHash());
+        System.out.println(c.getDatetime());
+        System.out.println(c.getMessage());
+        System.out.println();
+    }
+
+    // Prints the global log. OPTIONS may hold "-n <count>" to print only the
+    // most recent entries, "--skip <count>" to page back past the newest
+    // ones, and "--since <yyyy-MM-dd[ HH:mm:ss]>".
+    public void global(String... options) {
+        GlobalLog log = new GlobalLog();
+        int limit = log.size();
+        int skip = 0;
+        int from = 0;
+        try {
+            for (int i = 0; i < options.length; i += 2) {
+                String value = options[i + 1];
+                if (options[i].equals("-n")) {
+                    limit = Integer.parseInt(value);
+                } else if (options[i].equals("--skip")) {
+                    skip = Integer.parseInt(value);
+                } else if (options[i].equals("--since")) {
+                    String datetime = value.length() == 10 ? value + " 00:00:00" : value;
+                    from = log.firstSince(LocalDateTime.parse(datetime,
+                            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"))
+                            .atZone(ZoneId.systemDefault()).toEpochSecond());
+                } else {
+                    throw new IllegalArgumentException();
+                }
             }
-        } catch (IOException excp) {
+        } catch (IllegalArgumentException | IndexOutOfBoundsException
+                | DateTimeParseException excp) {
+            System.out.println("Incorrect Operands");
             return;
         }
+        int to = log.size() - skip;
+        log.print(Math.max(from, to - limit), to);
     }
 
     public void find(String msg) {
-        File commitFolder = new File(workingDir, ".gitlet/commits");
-        String[] fileNameArray = commitFolder.list();
-        int printCount = 0;
-        for (String aFile : fileNameArray) {
-            Commit currFile = SerializeUtils.deserialize(".gitlet/commits/" + aFile, Commit.class);
-            if (currFile.getMessage().equals(msg)) {
-                System.out.println(currFile.getOwnHash());
-                printCount += 1;
-            }
+        printMatches(messageIndex().findMessage(msg));
+    }
+
+    // Lists the commits whose message contains WORD, ignoring case.
+    public void findWord(String word) {
+        printMatches(messageIndex().findWord(word));
+    }
+
+    private void printMatches(List<String> commitIDs) {
+        for (String commitID : commitIDs) {
+            System.out.println(commitID);
         }
-        if (printCount == 0) {
+        if (commitIDs.isEmpty()) {
             System.out.println("Found no commit with that message.");
-            System.exit(0);
         }
     }
 
     public void status() {
         List<String> branches = new ArrayList<String>();
-        File[] files1 = new File(".gitlet/branches").listFiles();
-        for (File file : files1) {
-            branches.add(file.getName().substring(0, file.getName().length() - 4));
+        for (String fileName : Journal.list(".gitlet/branches")) {
+            branches.add(fileName.substring(0, fileName.length() - 4));
         }
         branches.remove("HEAD");
         branches.remove(HEAD);
         branches.add("*" + HEAD);
         Collections.sort(branches);
-        List<String> stagedFiles = new ArrayList<String>();
-        for (Map.Entry<String, String> entry : stage.getAddedFiles().entrySet()) {
-            stagedFiles.add(entry.getKey());
-        }
+        List<String> stagedFiles = stage.getAddedFiles().keys();
         Collections.sort(stagedFiles);
         List<String> remFiles = new ArrayList<String>();
         for (String file : stage.getRemovedFiles()) {
             remFiles.add(file);
         }
         Collections.sort(remFiles);
+        List<String> modFiles = new ArrayList<String>();
+        List<String> untrackedFiles = new ArrayList<String>();
+        Metrics.Span span = Metrics.span("scan working tree");
+        try (span) {
+            workingTreeStatus(modFiles, untrackedFiles);
+        }
 
         System.out.println("=== Branches ===");
         for (String branch : branches) {
@@ -226,108 +418,476 @@ public class Repo {
         }
         System.out.println();
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String modified : modFiles) {
+            System.out.println(modified);
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String untracked : untrackedFiles) {
+            System.out.println(untracked);
+        }
+    }
+
+    // Fills MODIFIED with the working files that differ from what is staged or
+    // committed and UNTRACKED with the files that are neither. Only files whose
+    // stat data changed since they were last hashed are read.
+    private void workingTreeStatus(List<String> modified, List<String> untracked) {
+        FileMap tracked = getCurrentCommit().getBlobs(objects);
+        FileMap staged = stage.getAddedFiles();
+        Set<String> removed = new HashSet<>(stage.getRemovedFiles());
+        List<String> workingFiles = workingFiles(Paths.get(""), p -> true);
+        Set<String> present = new HashSet<>(workingFiles);
+        for (String file : workingFiles) {
+            String expected = staged.containsKey(file) ? staged.get(file) : tracked.get(file);
+            if (expected == null || (removed.contains(file) && !staged.containsKey(file))) {
+                untracked.add(file);
+            } else if (!expected.equals(statCache().hash(file, new File(file)))) {
+                modified.add(file + " (modified)");
+            }
+        }
+        for (String file : staged.keys()) {
+            if (!present.contains(file)) {
+                modified.add(file + " (deleted)");
+            }
+        }
+        for (String file : tracked.keys()) {
+            if (!present.contains(file) && !removed.contains(file) && !staged.containsKey(file)) {
+                modified.add(file + " (deleted)");
+            }
+        }
+        Collections.sort(modified);
+        Collections.sort(untracked);
+        statCache().save();
+    }
+
+    // Prints a unified diff from the commit named by the first of IDS to the
+    // second, or, with one id, from that commit to the working directory and,
+    // with none, from the staged files to it. Blob hashes are compared first,
+    // descending only into subtrees that differ and taking working files'
+    // hashes from the stat cache, so only files that changed are read, and
+    // each file's diff is written as soon as it is found.
+    public void diff(String... ids) {
+        Commit[] commits = new Commit[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            String id = resolveCommitID(ids[i]);
+            if (id == null) {
+                return;
+            }
+            commits[i] = readCommit(id);
+        }
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        if (ids.length == 2) {
+            diff(commits[0], commits[1], (f, before, after) -> printDiff(f, before, after, null, out));
+            return;
+        }
+        FileMap index = getCurrentCommit().getBlobs(objects);
+        for (String file : stage.getAddedFiles().keys()) {
+            index = index.plus(file, stage.getAddedFiles().get(file));
+        }
+        for (String file : stage.getRemovedFiles()) {
+            index = index.minus(file);
+        }
+        FileMap from = ids.length == 1 ? commits[0].getBlobs(objects) : index;
+        TreeSet<String> files = new TreeSet<>(from.keys());
+        files.addAll(index.keys());
+        for (String file : files) {
+            File working = new File(file);
+            String blob = working.isFile() ? statCache().hash(file, working) : null;
+            if (!Objects.equals(from.get(file), blob)) {
+                printDiff(file, from.get(file), blob, blob == null ? null : working, out);
+            }
+        }
+        statCache().save();
+    }
+
+    // Writes the diff of PATH from the object BEFORE to AFTER, either null if
+    // the file is absent, reading AFTER from WORKING, the working file, if
+    // that is not null. Either side over Diff.MAX_SIZE is neither loaded nor
+    // mapped, and the file is only reported as differing.
+    private void printDiff(String path, String before, String after, File working,
+                           OutputStream out) {
+        try {
+            if (before != null && objects.largerThan(before, Diff.MAX_SIZE)
+                    || (working != null ? working.length() > Diff.MAX_SIZE
+                    : after != null && objects.largerThan(after, Diff.MAX_SIZE))) {
+                Diff.large(path, before != null, after != null, out);
+                out.flush();
+                return;
+            }
+            ByteBuffer a = before == null ? null : ByteBuffer.wrap(objects.get(before));
+            ByteBuffer b;
+            if (working != null) {
+                try (FileChannel in = FileChannel.open(working.toPath())) {
+                    b = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                }
+            } else {
+                b = after == null ? null : ByteBuffer.wrap(objects.get(after));
+            }
+            Diff.unified(path, a, b, out);
+            out.flush();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     public void checkout(String... args) {
         if (args.length == 2) {
             String branchName = args[1];
-            if (!(new File(".gitlet/branches/" + branchName + ".txt")).exists()) {
+            if (!Journal.exists(".gitlet/branches/" + branchName + ".txt")) {
                 System.out.println("No such branch exists.");
                 return;
             }
             String branchPath = ".gitlet/branches/" + branchName + ".txt";
-            String headPath = ".gitlet/branches/" + HEAD + ".txt";
             String newCommitID = SerializeUtils.readStringFromFile(branchPath);
-            Commit newCommit = SerializeUtils.deserialize(".gitlet/commits/"
-                    + newCommitID + ".txt", Commit.class);
-            Commit curr = getCurrentCommit();
-            HashMap<String, String> newBlobs = newCommit.getBlobs();
-            HashMap<String, String> headBlobs = curr.getBlobs();
-            ArrayList<File> fileList = new ArrayList<>();
-            for (File f : workingDir.listFiles()) {
-                if (f.getName().endsWith(".txt")) {
-                    fileList.add(f);
-                }
-            }
-            Commit commitToCheckout = newCommit;
-            Commit currCommit = getCurrentCommit();
-            for (File f : fileList) {
-                if (!currCommit.getBlobs().containsKey(f.getName())
-                        && commitToCheckout.getBlobs().containsKey(f.getName())) {
-                    System.out.println("There is an untracked file in the way; "
-                            + "delete it or add it first.");
-                    return;
-                }
-            }
-            ArrayList<String> fileNames = new ArrayList<>(commitToCheckout.getBlobs().keySet());
-            for (File f : fileList) {
-                if (!commitToCheckout.getBlobs().containsKey(f.getName())
-                        && currCommit.getBlobs().containsKey(f.getName())) {
-                    Utils.restrictedDelete(f);
-                }
-            }
-            for (String f : fileNames) {
-                String blobHash = commitToCheckout.getBlobs().get(f);
-                String blobPath = workingDir.getPath() + "/.gitlet/blobs/" + blobHash + ".txt";
-                File newFile = new File(blobPath);
-                byte[] blobBytes = Utils.readContents(newFile);
-                Utils.writeContents(new File(f), blobBytes);
+            Commit newCommit = readCommit(newCommitID);
+            if (!checkoutCommit(newCommit)) {
+                return;
             }
             stage.clear();
-            SerializeUtils.storeObjectToFile(stage, workingDir.getPath()
+            SerializeUtils.storeStage(stage, workingDir.getPath()
                     + "/.gitlet/staging/stage.txt");
             SerializeUtils.writeStringToFile(branchName, ".gitlet/branches/HEAD.txt", false);
+            HEAD = branchName;
+            Journal.delete(MERGE_HEAD);
         } else if (args.length == 3) {
             String fileName = args[2];
-            Commit headCommit = getCurrentCommit();
-            HashMap<String, String> commitMap = headCommit.getBlobs();
-            if (!commitMap.containsKey(fileName)) {
+            String blobHash = getCurrentCommit().getBlob(objects, fileName);
+            if (blobHash == null) {
                 System.out.println("File does not exist in that commit.");
                 return;
             }
             if ((new File(workingDir.getPath() + fileName)).exists()) {
                 Utils.restrictedDelete(workingDir.getPath() + fileName);
             }
-            File blob = new File(workingDir.getPath() + "/.gitlet/blobs/"
-                    + headCommit.getBlobs().get(fileName) + ".txt");
-            byte[] storeRFile = Utils.readContents(blob);
             File newFile = new File(workingDir.getPath(), fileName);
-            Utils.writeContents(newFile, storeRFile);
+            objects.copyTo(blobHash, newFile);
         } else if (args.length == 4) {
-            String commitID = args[1];
+            String commitID = resolveCommitID(args[1]);
             String fileName = args[3];
-            String[] possibleCommit = new File(".gitlet/commits").list();
-            for (String identifier : possibleCommit) {
-                if (identifier.contains(commitID)) {
-                    commitID = identifier;
-                    commitID = commitID.substring(0, commitID.length() - 4);
-                    break;
-                }
+            if (commitID == null) {
+                return;
             }
-            Commit currCommit = SerializeUtils.deserialize(".gitlet/commits/"
-                    + commitID + ".txt", Commit.class);
-            if (currCommit == null) {
-                System.out.println("No commit with that id exists.");
-            } else if (!currCommit.getBlobs().containsKey(fileName)) {
+            String blobHash = readCommit(commitID).getBlob(objects, fileName);
+            if (blobHash == null) {
                 System.out.println("File does not exist in that commit.");
             } else {
                 if ((new File(workingDir.getPath() + fileName)).exists()) {
                     Utils.restrictedDelete(workingDir.getPath() + fileName);
                 }
                 File newFile = new File(workingDir.getPath(), fileName);
-                File blob = new File(workingDir.getPath() + "/.gitlet/blobs/"
-                        + currCommit.getBlobs().get(fileName) + ".txt");
-                byte[] storeRFile = Utils.readContents(blob);
-                Utils.writeContents(newFile, storeRFile);
+                objects.copyTo(blobHash, newFile);
             }
         }
     }
 
+    public void repack() {
+        Journal.withLock(objects::repack);
+    }
+
+    // Deletes the commits and objects that no branch, pending merge or staged
+    // file can reach. Commits and loose objects written within the grace
+    // period, "--grace <days>" (default GC_GRACE_DAYS), are kept along with
+    // everything they need. "--dry-run" only reports what would be removed.
+    // Blobs are marked in parallel on the common fork-join pool.
+    public void gc(String... options) {
+        boolean dryRun = false;
+        long graceDays = GC_GRACE_DAYS;
+        try {
+            for (int i = 0; i < options.length; i += 1) {
+                if (options[i].equals("--dry-run")) {
+                    dryRun = true;
+                } else if (options[i].equals("--grace") && i + 1 < options.length) {
+                    graceDays = Long.parseLong(options[i + 1]);
+                    i += 1;
+                } else {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException excp) {
+            System.out.println("Incorrect Operands");
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - graceDays * 24 * 60 * 60 * 1000;
+        List<String> roots = new ArrayList<>();
+        for (String fileName : Journal.list(".gitlet/branches")) {
+            if (!fileName.equals("HEAD.txt")) {
+                roots.add(SerializeUtils.readStringFromFile(".gitlet/branches/" + fileName));
+            }
+        }
+        if (Journal.exists(MERGE_HEAD)) {
+            roots.add(SerializeUtils.readStringFromFile(MERGE_HEAD));
+        }
+        List<String> commitFiles = Utils.plainFilenamesIn(".gitlet/commits");
+        for (String fileName : commitFiles) {
+            if (new File(".gitlet/commits/" + fileName).lastModified() >= cutoff) {
+                roots.add(fileName.substring(0, fileName.length() - 4));
+            }
+        }
+        Set<String> liveCommits;
+        Set<String> liveObjects = ConcurrentHashMap.newKeySet();
+        Metrics.Span span = Metrics.span("mark");
+        try (span) {
+            liveCommits = reachableCommits(roots);
+            Stream.concat(stage.getAddedFiles().values().stream(),
+                    objects.looseSince(cutoff).stream()).parallel()
+                    .forEach(hash -> markObject(hash, liveObjects));
+            liveCommits.parallelStream().forEach(hash -> {
+                Commit c = SerializeUtils.readCommit(".gitlet/commits/" + hash + ".txt");
+                if (c.getTreeHash() != null) {
+                    Tree.walk(objects, c.getTreeHash(), h -> markObject(h, liveObjects));
+                } else {
+                    for (String blob : c.getBlobs(objects).values()) {
+                        markObject(blob, liveObjects);
+                    }
+                }
+            });
+        }
+        sweep(commitFiles, liveCommits, liveObjects, dryRun);
+    }
+
+    // Deletes the commits among COMMITFILES not in LIVECOMMITS and the objects
+    // not in LIVEOBJECTS, holding the repository lock, and reports how much
+    // went, or would go if DRYRUN.
+    private void sweep(List<String> commitFiles, Set<String> liveCommits,
+                       Set<String> liveObjects, boolean dryRun) {
+        Journal.withLock(() -> {
+            long deadCommits = 0;
+            long commitBytes = 0;
+            for (String fileName : commitFiles) {
+                File commitFile = new File(".gitlet/commits/" + fileName);
+                if (!liveCommits.contains(fileName.substring(0, fileName.length() - 4))) {
+                    deadCommits += 1;
+                    commitBytes += commitFile.length();
+                    if (!dryRun) {
+                        commitFile.delete();
+                    }
+                }
+            }
+            long[] dead = objects.prune(liveObjects, dryRun);
+            if (!dryRun && deadCommits > 0) {
+                commitCache.clear();
+                reindex();
+            }
+            System.out.println((dryRun ? "Would remove " : "Removed ") + deadCommits
+                    + " commits and " + dead[0] + " objects, reclaiming "
+                    + (commitBytes + dead[1]) + " bytes.");
+        });
+    }
+
+    // Returns the commits named in ROOTS and all of their ancestors, walked
+    // through the commit graph.
+    private Set<String> reachableCommits(List<String> roots) {
+        Set<String> result = new HashSet<>();
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        for (String root : roots) {
+            int pos = commitGraph().position(root);
+            if (pos == CommitGraph.NONE && new File(".gitlet/commits/" + root + ".txt").exists()) {
+                CommitGraph.rebuild();
+                graph = null;
+                changedPaths = null;
+                pos = commitGraph().position(root);
+            }
+            if (pos != CommitGraph.NONE) {
+                pending.push(pos);
+            }
+        }
+        BitSet seen = new BitSet(commitGraph().size());
+        while (!pending.isEmpty()) {
+            int pos = pending.pop();
+            if (pos == CommitGraph.NONE || seen.get(pos)) {
+                continue;
+            }
+            seen.set(pos);
+            result.add(commitGraph().hash(pos));
+            pending.push(commitGraph().parent(pos));
+            pending.push(commitGraph().secondParent(pos));
+        }
+        return result;
+    }
+
+    // Adds the object HASH, and the delta bases and chunks it is built from,
+    // to LIVE. Returns false if HASH was already there.
+    private boolean markObject(String hash, Set<String> live) {
+        if (!live.add(hash)) {
+            return false;
+        }
+        for (String part : objects.references(hash)) {
+            markObject(part, live);
+        }
+        return true;
+    }
+
+    // Makes the working directory match TARGET. Only files whose blobs differ
+    // from the current commit, found by comparing their trees, are written or
+    // deleted, and the writes run on a bounded pool once the command has
+    // committed. Returns false, changing nothing, if an untracked file is in
+    // the way.
+    private boolean checkoutCommit(Commit target) {
+        HashMap<String, String> targetBlobs = new HashMap<>();
+        List<String> toWrite = new ArrayList<>();
+        List<String> toDelete = new ArrayList<>();
+        boolean[] blocked = new boolean[1];
+        diff(getCurrentCommit(), target, (f, before, after) -> {
+            if (after == null) {
+                toDelete.add(f);
+                return;
+            } else if (before == null && new File(f).exists()) {
+                blocked[0] = true;
+            }
+            targetBlobs.put(f, after);
+            toWrite.add(f);
+        });
+        // The stage is cleared afterwards, so files staged or removed since the
+        // current commit are rewritten even where the two commits agree.
+        List<String> staged = stage.getAddedFiles().keys();
+        staged.addAll(stage.getRemovedFiles());
+        for (String f : staged) {
+            String blob = target.getBlob(objects, f);
+            if (blob != null && targetBlobs.put(f, blob) == null) {
+                toWrite.add(f);
+            }
+        }
+        if (blocked[0]) {
+            System.out.println("There is an untracked file in the way; "
+                    + "delete it or add it first.");
+            return false;
+        }
+        Journal.afterCommit(() -> {
+            for (String f : toDelete) {
+                if (new File(f).exists()) {
+                    deleteWorkingFile(f);
+                    statCache().forget(f);
+                }
+            }
+            List<Callable<Void>> writes = new ArrayList<>();
+            for (String f : toWrite) {
+                writes.add(() -> {
+                    objects.copyTo(targetBlobs.get(f), new File(f));
+                    return null;
+                });
+            }
+            Metrics.Span span = Metrics.span("write files");
+            try (span) {
+                runInParallel(writes);
+            }
+            for (String f : toWrite) {
+                statCache().record(f, new File(f), targetBlobs.get(f));
+            }
+            statCache().save();
+        });
+        return true;
+    }
+
+    // Reports to VISITOR each file whose blob differs between the commits
+    // BEFORE and AFTER. Their trees are compared where both have them, and
+    // otherwise their file maps; either way, parts the two share are skipped.
+    private void diff(Commit before, Commit after, Tree.Visitor visitor) {
+        if (before.getTreeHash() != null && after.getTreeHash() != null) {
+            Tree.diff(objects, before.getTreeHash(), after.getTreeHash(), visitor);
+        } else {
+            before.getBlobs(objects).diff(after.getBlobs(objects), visitor);
+        }
+    }
+
+    // Reports to VISITOR each file that AFTER changed from BEFORE, which is
+    // null for a commit with no parent.
+    private void changed(Commit before, Commit after, Tree.Visitor visitor) {
+        if (before == null) {
+            after.getBlobs(objects).forEach((f, blob) -> visitor.changed(f, null, blob));
+        } else {
+            diff(before, after, visitor);
+        }
+    }
+
+    // Returns the root tree of C, storing one built from its blobs if it was
+    // written before commits had trees.
+    private String treeOf(Commit c) {
+        if (c.getTreeHash() != null) {
+            return c.getTreeHash();
+        }
+        HashMap<String, String> files = new HashMap<>();
+        c.getBlobs(objects).forEach(files::put);
+        return Tree.build(objects, files);
+    }
+
+    // Deletes the working file PATH, which may be in a subdirectory of the
+    // working directory, and then any directories that it leaves empty.
+    private void deleteWorkingFile(String path) {
+        File file = new File(path);
+        if (file.getParentFile() == null) {
+            Utils.restrictedDelete(file);
+        } else if (new File(".gitlet").isDirectory()) {
+            file.delete();
+            // Directories are not tracked themselves, so those left empty go.
+            File dir = file.getParentFile();
+            while (dir != null && dir.delete()) {
+                dir = dir.getParentFile();
+            }
+        }
+    }
+
+    // Runs TASKS on a pool of at most CHECKOUT_THREADS threads and waits for
+    // all of them, rethrowing the first failure.
+    private static void runInParallel(List<Callable<Void>> tasks) {
+        if (tasks.size() <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception excp) {
+                    throw new IllegalArgumentException(excp.getMessage());
+                }
+            }
+            return;
+        }
+        int threads = Math.min(tasks.size(),
+                Math.min(CHECKOUT_THREADS, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> result : pool.invokeAll(tasks)) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Rebuilds the commit graph, message index, id table and global log from
+    // the commit objects.
+    public void reindex() {
+        Journal.withLock(this::rebuildIndexes);
+    }
+
+    // Rebuilds the indexes from the commit objects. Must be called holding
+    // the lock.
+    private void rebuildIndexes() {
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+        CommitIds.rebuild();
+        GlobalLog.rebuild();
+        graph = null;
+        changedPaths = null;
+        messageIndex = null;
+        commitIds = null;
+    }
+
+    // Expands a full or abbreviated commit id. Prints an error and returns
+    // null if no commit, or more than one, starts with PREFIX.
+    private String resolveCommitID(String prefix) {
+        List<String> found = commitIds().matches(prefix, 2);
+        if (found.isEmpty()) {
+            System.out.println("No commit with that id exists.");
+            return null;
+        } else if (found.size() > 1) {
+            System.out.println("Commit id " + prefix + " is ambiguous.");
+            return null;
+        }
+        return found.get(0);
+    }
+
     public void branch(String branchName) {
-        File branchFile = new File(".gitlet/branches/" + branchName + ".txt");
-        if (branchFile.exists()) {
+        if (Journal.exists(".gitlet/branches/" + branchName + ".txt")) {
             System.out.print("A branch with that name already exists.");
             return;
         }
@@ -342,52 +902,25 @@ public class Repo {
             System.out.print("Cannot remove the current branch.");
             return;
         }
-        File branchFile = new File(".gitlet/branches/" + branchName + ".txt");
-        if (!branchFile.delete()) {
+        if (!Journal.delete(".gitlet/branches/" + branchName + ".txt")) {
             System.out.print("A branch with that name does not exist.");
         }
     }
 
-    public void reset(String commitID) {
-        Commit commitToCheckout = SerializeUtils.deserialize(".gitlet/commits/"
-                + commitID + ".txt", Commit.class);
-        if (commitToCheckout == null) {
-            System.out.println("No commit with that id exists.");
+    public void reset(String abbreviatedID) {
+        String commitID = resolveCommitID(abbreviatedID);
+        if (commitID == null) {
             return;
         }
-        ArrayList<File> fileList = new ArrayList<>();
-        for (File f : workingDir.listFiles()) {
-            if (f.getName().endsWith(".txt")) {
-                fileList.add(f);
-            }
-        }
-        Commit currCommit = getCurrentCommit();
-        for (File f : fileList) {
-            if (!currCommit.getBlobs().containsKey(f.getName())
-                    && commitToCheckout.getBlobs().containsKey(f.getName())) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it or add it first.");
-                return;
-            }
-        }
-        ArrayList<String> fileNames = new ArrayList<>(commitToCheckout.getBlobs().keySet());
-        for (File f : fileList) {
-            if (!commitToCheckout.getBlobs().containsKey(f.getName())
-                    && currCommit.getBlobs().containsKey(f.getName())) {
-                Utils.restrictedDelete(f);
-            }
-        }
-        for (String f : fileNames) {
-            String blobHash = commitToCheckout.getBlobs().get(f);
-            String blobPath = workingDir.getPath() + "/.gitlet/blobs/" + blobHash + ".txt";
-            File newFile = new File(blobPath);
-            byte[] blobBytes = Utils.readContents(newFile);
-            Utils.writeContents(new File(f), blobBytes);
+        Commit commitToCheckout = readCommit(commitID);
+        if (!checkoutCommit(commitToCheckout)) {
+            return;
         }
         stage.clear();
-        SerializeUtils.storeObjectToFile(stage, workingDir.getPath()
+        SerializeUtils.storeStage(stage, workingDir.getPath()
                 + "/.gitlet/staging/stage.txt");
         SerializeUtils.writeStringToFile(commitID, ".gitlet/branches/" + HEAD + ".txt", false);
+        Journal.delete(MERGE_HEAD);
     }
 
     public boolean mergeHelper1(String bName) {
@@ -396,7 +929,7 @@ public class Repo {
             System.out.println("You have uncommitted changes.");
             toReturn = true;
             return toReturn;
-        } else if (!(new File(".gitlet/branches/" + bName + ".txt")).exists()) {
+        } else if (!Journal.exists(".gitlet/branches/" + bName + ".txt")) {
             System.out.println("A branch with that name does not exist.");
             toReturn = true;
             return toReturn;
@@ -408,24 +941,47 @@ public class Repo {
         return toReturn;
     }
 
-    public void mergeHelper2(String cBH, String fName, String bBH) {
-        File merge = new File(workingDir.getPath() + "/" + fName);
-        byte[] everything = addStuff("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                Utils.readContents(new File(".gitlet/blobs/" + cBH + ".txt")));
-        everything = addStuff(everything, "=======\n".getBytes(StandardCharsets.UTF_8));
-        everything = addStuff(everything, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        Utils.writeContents(merge, everything);
-    }
-
-    public void mergeHelper3(String cBH, String fName, String bBH) {
-        File merge = new File(workingDir.getPath() + "/" + fName);
-        byte[] everything = addStuff("<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8),
-                Utils.readContents(new File(".gitlet/blobs/" + cBH + ".txt")));
-        everything = addStuff(everything, "=======\n".getBytes(StandardCharsets.UTF_8));
-        everything = addStuff(everything, Utils.readContents(
-                new File(".gitlet/blobs/" + bBH + ".txt")));
-        everything = addStuff(everything, ">>>>>>>\n".getBytes(StandardCharsets.UTF_8));
-        Utils.writeContents(merge, everything);
+    // Merges the current version CBH and the given version BBH of FNAME, both
+    // descended from SPBH, staging the result if it merged cleanly, and
+    // writes it into the working directory once the command has committed. A
+    // null hash means the file is absent from that commit; a file deleted on
+    // one side and changed on the other is a conflict over the whole file.
+    // Returns true if clean.
+    private boolean mergeFile(String fName, String sPBH, String cBH, String bBH) {
+        byte[] none = new byte[0];
+        boolean clean;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (cBH == null || bBH == null) {
+                ThreeWayMerge.conflict(cBH == null ? none : objects.get(cBH),
+                        bBH == null ? none : objects.get(bBH), out);
+                clean = false;
+            } else {
+                clean = ThreeWayMerge.merge(sPBH == null ? none : objects.get(sPBH),
+                        objects.get(cBH), objects.get(bBH), out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        byte[] merged = out.toByteArray();
+        if (clean) {
+            String blobHash = Utils.sha1(merged);
+            objects.put(blobHash, merged, cBH);
+            stage.getRemovedFiles().remove(fName);
+            if (blobHash.equals(cBH)) {
+                stage.unstage(fName);
+            } else {
+                stage.add(fName, blobHash);
+            }
+        }
+        Journal.afterCommit(() -> {
+            File file = new File(workingDir.getPath() + "/" + fName);
+            if (file.getParentFile() != null) {
+                file.getParentFile().mkdirs();
+            }
+            Utils.writeContents(file, merged);
+        });
+        return clean;
     }
 
     public void merge(String bName) {
@@ -433,101 +989,147 @@ public class Repo {
         if (mergeHelper1(bName)) {
             return;
         }
-        ArrayList<File> fileList = new ArrayList<>();
-        for (File f : workingDir.listFiles()) {
-            if (f.getName().endsWith(".txt")) {
-                fileList.add(f);
-            }
-        }
         String bCommitID = SerializeUtils.readStringFromFile(".gitlet/branches/" + bName + ".txt");
-        String pathToBranchCommit = ".gitlet/commits/" + bCommitID + ".txt";
         Commit cCom = getCurrentCommit();
-        Commit bCom = SerializeUtils.deserialize(pathToBranchCommit, Commit.class);
-        HashMap<String, Commit> cCommitTree = new HashMap<>();
-        Commit cComPtr = cCom;
-        Commit bComPtr = bCom;
-        Commit sPnt = null;
-        for (File f : fileList) {
-            if (!cCom.getBlobs().containsKey(f.getName())
-                    && bCom.getBlobs().containsKey(f.getName())) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it or add it first.");
-                return;
-            }
-        }
-        while (cComPtr != null && SerializeUtils.deserialize(".gitlet/commits/"
-                + cComPtr.getOwnHash() + ".txt", Commit.class) != null) {
-            cCommitTree.put(cComPtr.getOwnHash(), SerializeUtils.deserialize
-                    (".gitlet/commits/" + cComPtr.getOwnHash() + ".txt", Commit.class));
-            cComPtr = SerializeUtils.deserialize(".gitlet/commits/"
-                    + cComPtr.getParentHash() + ".txt", Commit.class);
-        }
-        while (bComPtr != null && SerializeUtils.deserialize
-                (".gitlet/commits/" + bComPtr.getOwnHash() + ".txt",
-                        Commit.class) != null) {
-            if (cCommitTree.containsKey(bComPtr.getOwnHash())) {
-                sPnt = cCommitTree.get(bComPtr.getOwnHash());
-                break;
-            }
-            bComPtr = SerializeUtils.deserialize
-                    (".gitlet/commits/" + bComPtr.getParentHash() + ".txt", Commit.class);
+        Commit bCom = readCommit(bCommitID);
+        String splitHash;
+        Metrics.Span splitSpan = Metrics.span("split point");
+        try (splitSpan) {
+            splitHash = commitGraph().splitPoint(cCom.getOwnHash(), bCommitID);
         }
-        if (sPnt == null) {
+        if (splitHash == null) {
             System.out.println("There was an error finding the split point.");
+            return;
         }
-        if (sPnt.getOwnHash().equals(cCom.getOwnHash())) {
+        Commit sPnt = readCommit(splitHash);
+        if (splitHash.equals(cCom.getOwnHash())) {
             String currBranch = ".gitlet/branches/" + HEAD + ".txt";
             SerializeUtils.writeStringToFile(bCommitID, currBranch, false);
-            System.out.println("Current branch fast-forwarded.");
+            Journal.afterCommit(() -> System.out.println("Current branch fast-forwarded."));
             return;
-        } else if (cCommitTree.containsKey(bCommitID)) {
+        } else if (splitHash.equals(bCommitID)) {
             System.out.print("Given branch is an ancestor of the current branch.");
             return;
         }
-        for (String fName : cCom.getBlobs().keySet()) {
-            String bBH = bCom.getBlobs().get(fName);
-            String cBH = cCom.getBlobs().get(fName);
-            if (sPnt.getBlobs().containsKey(fName) && bCom.getBlobs().containsKey(fName)) {
-                String sPBH = sPnt.getBlobs().get(fName);
-                if (!sPBH.equals(bBH) && sPBH.equals(cBH)) {
-                    checkout("checkout", bCommitID, "--", fName);
-                    add(fName);
-                    SerializeUtils.storeObjectToFile(stage, ".gitlet/staging/stage.txt");
-                }
-                if (!sPBH.equals(bBH) || !sPBH.equals(cBH) || !bBH.equals(cBH)) {
-                    mergeHelper3(cBH, fName, bBH);
-                    conflict = true;
-                }
-            } else if (!bCom.getBlobs().containsKey(fName) && sPnt.getBlobs().containsKey(fName)
-                    && !sPnt.getBlobs().get(fName).equals(cCom.getBlobs().get(fName))) {
-                mergeHelper2(cBH, fName, bBH);
-                conflict = true;
-            }
-        }
-        ArrayList<String> splitFiles = new ArrayList<>(sPnt.getBlobs().keySet());
-        ArrayList<String> givenBranchFiles = new ArrayList<>(bCom.getBlobs().keySet());
-        for (String theFile : givenBranchFiles) {
-            if (!splitFiles.contains(theFile)) {
-                checkout("checkout", bCommitID, "--", theFile);
-                add(theFile);
+        // Only files that changed on some side since the split point can need
+        // merging, and comparing trees finds them without visiting the rest.
+        TreeMap<String, String> splitBlobs = new TreeMap<>();
+        TreeMap<String, String> currChanges = new TreeMap<>();
+        TreeMap<String, String> givenChanges = new TreeMap<>();
+        diff(sPnt, cCom, (f, before, after) -> {
+            splitBlobs.put(f, before);
+            currChanges.put(f, after);
+        });
+        diff(sPnt, bCom, (f, before, after) -> {
+            splitBlobs.put(f, before);
+            givenChanges.put(f, after);
+        });
+        // Every file the given branch changed is written unless it is deleted
+        // there, so one the current commit lacks must not be in the way.
+        for (String fName : givenChanges.keySet()) {
+            String cBH = currChanges.containsKey(fName)
+                    ? currChanges.get(fName) : splitBlobs.get(fName);
+            if (givenChanges.get(fName) != null && cBH == null && new File(fName).exists()) {
+                System.out.println("There is an untracked file in the way; "
+                        + "delete it or add it first.");
+                return;
             }
         }
-        for (String theFile : splitFiles) {
-            if (cCom.getBlobs().containsKey(theFile)) {
-                if (sPnt.getBlobs().get(theFile).equals(cCom.getBlobs().get(theFile))
-                        && !givenBranchFiles.contains(theFile)) {
-                    rm(theFile);
+        Metrics.Span mergeSpan = Metrics.span("merge files");
+        try (mergeSpan) {
+            for (String fName : splitBlobs.keySet()) {
+                String sPBH = splitBlobs.get(fName);
+                String cBH = currChanges.containsKey(fName) ? currChanges.get(fName) : sPBH;
+                String bBH = givenChanges.containsKey(fName) ? givenChanges.get(fName) : sPBH;
+                if (Objects.equals(cBH, bBH) || Objects.equals(sPBH, bBH)) {
+                    continue;
+                } else if (Objects.equals(sPBH, cBH)) {
+                    if (bBH == null) {
+                        rm(fName);
+                    } else {
+                        stage.getRemovedFiles().remove(fName);
+                        stage.add(fName, bBH);
+                        Journal.afterCommit(() -> objects.copyTo(bBH, new File(fName)));
+                    }
+                } else if (!mergeFile(fName, sPBH, cBH, bBH)) {
+                    conflict = true;
                 }
             }
         }
+        SerializeUtils.storeStage(stage, ".gitlet/staging/stage.txt");
+        SerializeUtils.writeStringToFile(bCommitID, MERGE_HEAD, false);
         if (conflict) {
-            System.out.println("Encountered a merge conflict.");
+            Journal.afterCommit(() -> System.out.println("Encountered a merge conflict."));
             return;
         } else {
             commitment("Merged " + HEAD + " with " + bName + ".");
         }
     }
 
+    private MessageIndex messageIndex() {
+        if (messageIndex == null) {
+            messageIndex = new MessageIndex();
+        }
+        return messageIndex;
+    }
+
+    private CommitIds commitIds() {
+        if (commitIds == null) {
+            commitIds = new CommitIds();
+        }
+        return commitIds;
+    }
+
+    private StatCache statCache() {
+        if (statCache == null) {
+            statCache = new StatCache();
+        }
+        return statCache;
+    }
+
+    // Opens the commit graph, rebuilding it for repositories that lack one or
+    // whose current commit was written without updating it.
+    private CommitGraph commitGraph() {
+        if (graph == null) {
+            graph = new CommitGraph();
+            String head = SerializeUtils.readStringFromFile(".gitlet/branches/" + HEAD + ".txt");
+            if (graph.position(head) == CommitGraph.NONE) {
+                CommitGraph.rebuild();
+                graph = new CommitGraph();
+            }
+        }
+        return graph;
+    }
+
+    // Opens the changed-path filters, first adding those of the commits in the
+    // graph that lack them: all of them in repositories made before there
+    // were filters, or after the graph is rebuilt. Commits deleted by gc get
+    // filters that match nothing.
+    private ChangedPaths changedPaths() {
+        if (changedPaths == null) {
+            CommitGraph commits = commitGraph();
+            Journal.withLock(() -> {
+                changedPaths = new ChangedPaths();
+                if (changedPaths.size() > commits.size()) {
+                    ChangedPaths.clear();
+                    changedPaths = new ChangedPaths();
+                }
+                for (int pos = changedPaths.size(); pos < commits.size(); pos += 1) {
+                    Commit c = readCommit(commits.hash(pos));
+                    int parent = commits.parent(pos);
+                    List<String> paths = new ArrayList<>();
+                    if (c != null) {
+                        changed(parent == CommitGraph.NONE ? null
+                                : readCommit(commits.hash(parent)), c,
+                                (f, before, after) -> paths.add(f));
+                    }
+                    changedPaths.append(pos, paths);
+                }
+            });
+        }
+        return changedPaths;
+    }
+
     public File findFile(String fileName, File dir) throws IllegalArgumentException {
         File[] fileList = dir.listFiles();
         for (File f : fileList) {
@@ -538,15 +1140,37 @@ public class Repo {
         return null;
     }
 
-    public Commit getCurrentCommit() {
-        String hash = SerializeUtils.readStringFromFile(".gitlet/branches/" + HEAD + ".txt");
-        return SerializeUtils.deserialize(".gitlet/commits/" + hash + ".txt", Commit.class);
+    // Rewrites commits and the stage left by Java serialization in the binary
+    // formats. Commits keep their original hashes, so branches stay valid.
+    private void migrateLegacyObjects() {
+        for (String fileName : Utils.plainFilenamesIn(".gitlet/commits")) {
+            String path = ".gitlet/commits/" + fileName;
+            if (SerializeUtils.isLegacyObject(path)) {
+                SerializeUtils.storeCommit(SerializeUtils.deserialize(path, Commit.class), path);
+            }
+        }
+        String pathToStage = ".gitlet/staging/stage.txt";
+        if (SerializeUtils.isLegacyObject(pathToStage)) {
+            SerializeUtils.storeStage(SerializeUtils.deserialize(pathToStage,
+                    StagingArea.class), pathToStage);
+        }
+        SerializeUtils.writeStringToFile(FORMAT_VERSION, ".gitlet/format.txt", false);
     }
 
-    private byte[] addStuff(byte[] addThisStuff, byte[] newStuffs) {
-        byte[] endResult = new byte[addThisStuff.length + newStuffs.length];
-        System.arraycopy(addThisStuff, 0, endResult, 0, addThisStuff.length);
-        System.arraycopy(newStuffs, 0, endResult, addThisStuff.length, newStuffs.length);
-        return endResult;
+    // Returns the commit named HASH, or null if there is none.
+    public Commit readCommit(String hash) {
+        Commit c = commitCache.get(hash);
+        if (c == null) {
+            c = SerializeUtils.readCommit(".gitlet/commits/" + hash + ".txt");
+            if (c != null) {
+                commitCache.put(hash, c);
+            }
+        }
+        return c;
+    }
+
+    public Commit getCurrentCommit() {
+        String hash = SerializeUtils.readStringFromFile(".gitlet/branches/" + HEAD + ".txt");
+        return readCommit(hash);
     }
 }
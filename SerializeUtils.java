@@ -1,36 +1,62 @@
 package gitlet;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 
 public class SerializeUtils {
 
-    // Stores an Object to a file specified by filePath.
-    public static void storeObjectToFile(Object obj, String filePath) {
-        File outFile = new File(filePath);
-        try {
-            ObjectOutputStream out =
-                    new ObjectOutputStream(new FileOutputStream(outFile));
-            out.writeObject(obj);
-            out.close();
-        } catch (IOException excp) {
-            System.out.println("Error storing object to file.");
+    // First two bytes of a stream written by ObjectOutputStream.
+    private static final int JAVA_STREAM_MAGIC = 0xaced;
+
+    // Stores a Commit to a file specified by filePath in the binary commit format.
+    // The file is written at once, as nothing refers to it until the command's
+    // ref changes commit, and its bytes also go in the journal record.
+    public static void storeCommit(Commit commit, String filePath) {
+        byte[] bytes = commit.encode();
+        writeBytes(bytes, filePath);
+        Journal.recordCommit(filePath, bytes);
+    }
+
+    // Reads a Commit stored by storeCommit, or null if there is none.
+    public static Commit readCommit(String filePath) {
+        File file = new File(filePath);
+        ByteBuffer in = wrap(file.isFile() ? Utils.readContents(file) : null);
+        if (in == null) {
+            return null;
         }
+        Metrics.count("deserializations", 1);
+        return Commit.decode(in);
     }
 
-    // Converts an Object to a ByteArray, only use if SHA1 is needed.
-    public static byte[] toByteArray(Object obj) {
-        try {
-            ByteArrayOutputStream stream = new ByteArrayOutputStream();
-            ObjectOutputStream objectStream = new ObjectOutputStream(stream);
-            objectStream.writeObject(obj);
-            objectStream.close();
-            return stream.toByteArray();
+    // Stores a StagingArea to a file specified by filePath in the binary stage format.
+    // The write is journaled, taking effect when the command commits.
+    public static void storeStage(StagingArea stage, String filePath) {
+        Journal.write(filePath, stage.encode());
+    }
+
+    // Reads a StagingArea stored by storeStage, or null if there is none.
+    public static StagingArea readStage(String filePath) {
+        ByteBuffer in = wrap(Journal.read(filePath));
+        if (in == null) {
+            return null;
+        }
+        Metrics.count("deserializations", 1);
+        return StagingArea.decode(in);
+    }
+
+    // Returns true if the file at filePath was written by Java serialization.
+    public static boolean isLegacyObject(String filePath) {
+        try (InputStream in = new FileInputStream(filePath)) {
+            return ((in.read() << 8) | in.read()) == JAVA_STREAM_MAGIC;
         } catch (IOException excp) {
-            throw new IllegalArgumentException("Internal error serializing commit.");
+            return false;
         }
     }
 
-    // Reconstructs an Object from ByteArray.
+    // Reconstructs an Object written by Java serialization. Only used to
+    // migrate repositories created before the binary formats.
     public static <T> T deserialize(String fileName, Class<T> type) {
         T obj;
         File inFile = new File(fileName);
@@ -38,6 +64,7 @@ public class SerializeUtils {
             ObjectInputStream inp =
                     new ObjectInputStream(new FileInputStream(inFile));
             obj = (T) inp.readObject();
+            Metrics.count("deserializations", 1);
             inp.close();
         } catch (IOException | ClassNotFoundException excp) {
             obj = null;
@@ -45,29 +72,63 @@ public class SerializeUtils {
         return obj;
     }
 
-    public static void writeStringToFile(String text, String filepath, boolean appending) {
-        try {
-            File logFile = new File(filepath);
-            BufferedWriter out = new BufferedWriter(new FileWriter(logFile, appending));
-            out.write(text);
-            out.close();
+    // Writes a length-prefixed UTF-8 string.
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Reads a string written by writeString straight out of the buffer's array.
+    static String readString(ByteBuffer in) {
+        int len = in.getInt();
+        String text = new String(in.array(), in.arrayOffset() + in.position(),
+                len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return text;
+    }
+
+    // Writes a 40-digit SHA1 string as its 20 raw bytes.
+    static void writeHash(DataOutputStream out, String hash) throws IOException {
+        out.write(Utils.hexToBytes(hash));
+    }
+
+    // Reads a hash written by writeHash.
+    static String readHash(ByteBuffer in) {
+        String hash = Utils.bytesToHex(in.array(), in.arrayOffset() + in.position(), 20);
+        in.position(in.position() + 20);
+        return hash;
+    }
+
+    private static void writeBytes(byte[] bytes, String filePath) {
+        try (OutputStream out = new FileOutputStream(filePath)) {
+            out.write(bytes);
+            Metrics.count("bytes written", bytes.length);
         } catch (IOException excp) {
-            return;
+            System.out.println("Error storing object to file.");
         }
     }
 
+    private static ByteBuffer wrap(byte[] contents) {
+        return contents == null ? null : ByteBuffer.wrap(contents);
+    }
+
+    // Sets the contents of the ref or other small file at filepath to text,
+    // or appends text to it. The write is journaled, taking effect when the
+    // command commits.
+    public static void writeStringToFile(String text, String filepath, boolean appending) {
+        String contents = appending && Journal.exists(filepath)
+                ? new String(Journal.read(filepath), StandardCharsets.UTF_8) + text : text;
+        Journal.write(filepath, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns the contents of filepath with line breaks removed, as the
+    // current command has left them, or "error" if there is no such file.
     public static String readStringFromFile(String filepath) {
-        File readingFrom = new File(filepath);
-        try (BufferedReader br = new BufferedReader(new FileReader(readingFrom))) {
-            String line = null;
-            String everything = "";
-            while ((line = br.readLine()) != null) {
-                everything += line;
-            }
-            return everything;
-        } catch (IOException excp) {
+        byte[] contents = Journal.read(filepath);
+        if (contents == null) {
             return "error";
         }
+        return new String(contents, StandardCharsets.UTF_8).replace("\r", "").replace("\n", "");
     }
-
 }
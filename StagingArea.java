@@ -1,20 +1,40 @@
 package gitlet;
 
 import java.util.*;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 
 public class StagingArea implements Serializable {
+    // Fixed so that stages written by Java serialization can still be migrated.
+    private static final long serialVersionUID = -7779278662224768979L;
+    private static final int FORMAT = 0x474c5301; // "GLS" version 1
 
-    private HashMap<String, String> addedFiles;
+    // Fields of stages written by Java serialization, which migration reads.
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("addedFiles", HashMap.class),
+        new ObjectStreamField("removedFiles", ArrayList.class),
+    };
+
+    private FileMap addedFiles;
     private ArrayList<String> removedFiles;
 
     public StagingArea() {
-        addedFiles = new HashMap<>();
+        addedFiles = FileMap.EMPTY;
         removedFiles = new ArrayList<>();
     }
 
     public void add(String fileName, String sha1) {
-        addedFiles.put(fileName, sha1);
+        addedFiles = addedFiles.plus(fileName, sha1);
+    }
+
+    // Drops FILENAME from the added files.
+    public void unstage(String fileName) {
+        addedFiles = addedFiles.minus(fileName);
     }
 
     public void addToRemovedFiles(String fileName) {
@@ -22,15 +42,59 @@ public class StagingArea implements Serializable {
     }
 
     public void clear() {
-        addedFiles = new HashMap<>();
+        addedFiles = FileMap.EMPTY;
         removedFiles = new ArrayList<>();
     }
 
-    public HashMap<String, String> getAddedFiles() {
+    public FileMap getAddedFiles() {
         return addedFiles;
     }
 
     public ArrayList<String> getRemovedFiles() {
         return removedFiles;
     }
+
+    // Returns the binary form of this stage.
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(FORMAT);
+            out.writeInt(addedFiles.size());
+            for (String fileName : addedFiles.keys()) {
+                SerializeUtils.writeString(out, fileName);
+                SerializeUtils.writeHash(out, addedFiles.get(fileName));
+            }
+            out.writeInt(removedFiles.size());
+            for (String fileName : removedFiles) {
+                SerializeUtils.writeString(out, fileName);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Internal error encoding stage.");
+        }
+        return bytes.toByteArray();
+    }
+
+    // Reads a stage written by encode.
+    public static StagingArea decode(ByteBuffer in) {
+        if (in.getInt() != FORMAT) {
+            throw new IllegalArgumentException("Unknown stage format.");
+        }
+        StagingArea stage = new StagingArea();
+        for (int count = in.getInt(); count > 0; count -= 1) {
+            String fileName = SerializeUtils.readString(in);
+            stage.add(fileName, SerializeUtils.readHash(in));
+        }
+        for (int count = in.getInt(); count > 0; count -= 1) {
+            stage.removedFiles.add(SerializeUtils.readString(in));
+        }
+        return stage;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        addedFiles = FileMap.of((HashMap<String, String>) fields.get("addedFiles", null));
+        removedFiles = (ArrayList<String>) fields.get("removedFiles", null);
+    }
 }
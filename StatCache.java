@@ -0,0 +1,167 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+
+// Remembers the size, modification time, inode and SHA1 of working files so
+// that files whose stat data has not changed are not hashed again. As in Git,
+// an entry modified less than a second before the cache was saved is not
+// trusted, since a later write in the same tick would leave its stat data
+// unchanged.
+public class StatCache {
+    private static final String INDEX_FILE = ".gitlet/staging/index";
+    private static final int FORMAT = 0x474c4901; // "GLI" version 1
+    private static final long RACY_MILLIS = 1000;
+
+    private HashMap<String, Entry> entries = new HashMap<>();
+    private long savedAt;
+    private boolean dirty;
+
+    private static class Entry {
+        private long size;
+        private long mtime;
+        private long inode;
+        private String hash;
+    }
+
+    public StatCache() {
+        File indexFile = new File(INDEX_FILE);
+        if (!indexFile.exists()) {
+            return;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Utils.readContents(indexFile));
+        try {
+            if (in.getInt() != FORMAT) {
+                return;
+            }
+            savedAt = in.getLong();
+            for (int count = in.getInt(); count > 0; count -= 1) {
+                String path = SerializeUtils.readString(in);
+                Entry e = new Entry();
+                e.size = in.getLong();
+                e.mtime = in.getLong();
+                e.inode = in.getLong();
+                e.hash = SerializeUtils.readHash(in);
+                entries.put(path, e);
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                 | IllegalArgumentException excp) {
+            // A torn or corrupt cache is started afresh and written back whole.
+            entries.clear();
+            savedAt = 0;
+            dirty = true;
+        }
+    }
+
+    // Returns the recorded SHA1 of FILE, named PATH, if its stat data still
+    // matches the cache, and null otherwise.
+    public String lookup(String path, File file) {
+        Entry cached = entries.get(path);
+        if (cached == null || cached.mtime + RACY_MILLIS > savedAt) {
+            return null;
+        }
+        Entry current = stat(file);
+        if (current == null || current.size != cached.size
+                || current.mtime != cached.mtime || current.inode != cached.inode) {
+            return null;
+        }
+        return cached.hash;
+    }
+
+    // Returns the SHA1 of FILE, named PATH, hashing it only on a cache miss.
+    public String hash(String path, File file) {
+        String hash = lookup(path, file);
+        if (hash == null) {
+            hash = ObjectStore.hashFile(file);
+            record(path, file, hash);
+        }
+        return hash;
+    }
+
+    // Records that FILE, named PATH, currently has contents HASH.
+    public void record(String path, File file, String hash) {
+        Entry e = stat(file);
+        if (e != null) {
+            e.hash = hash;
+            entries.put(path, e);
+            dirty = true;
+        }
+    }
+
+    // Forgets PATH, for instance after it was removed from the working directory.
+    public void forget(String path) {
+        if (entries.remove(path) != null) {
+            dirty = true;
+        }
+    }
+
+    // Writes the cache back if anything changed since it was loaded.
+    public void save() {
+        if (!dirty) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Path tmp = null;
+        try {
+            out.writeInt(FORMAT);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Entry e = entry.getValue();
+                SerializeUtils.writeString(out, entry.getKey());
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeLong(e.inode);
+                SerializeUtils.writeHash(out, e.hash);
+            }
+            // Each process writes its own temporary file, so that concurrent
+            // saves never publish one another's half-written bytes.
+            tmp = Files.createTempFile(Paths.get(INDEX_FILE).getParent(), "index", ".tmp");
+            Files.write(tmp, bytes.toByteArray());
+            Files.move(tmp, Paths.get(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            if (tmp != null) {
+                tmp.toFile().delete();
+            }
+            return;
+        }
+        dirty = false;
+    }
+
+    // Returns the stat data of FILE, or null if it cannot be read. The inode
+    // is only available where the platform offers the "unix" attribute view.
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        Entry e = new Entry();
+        try {
+            try {
+                Map<String, Object> attrs =
+                        Files.readAttributes(path, "unix:size,lastModifiedTime,ino");
+                e.size = (Long) attrs.get("size");
+                e.mtime = ((FileTime) attrs.get("lastModifiedTime")).toMillis();
+                e.inode = (Long) attrs.get("ino");
+            } catch (UnsupportedOperationException excp) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                e.size = attrs.size();
+                e.mtime = attrs.lastModifiedTime().toMillis();
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,118 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Line-level three-way merge in the manner of diff3.  Both sides are diffed
+ * against their common base; the base lines kept by both sides split the
+ * files into stable regions, copied through, and the regions in between,
+ * where at most one side changing means that side wins and both changing
+ * differently is a conflict.
+ */
+class ThreeWayMerge {
+
+    private static final byte[] OURS_MARKER = "<<<<<<< HEAD\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SEPARATOR = "=======\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] THEIRS_MARKER = ">>>>>>>\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Writes the merge of OURS and THEIRS, each edited from BASE, to OUT,
+     * with conflict markers around only the regions both changed.  Returns
+     * true if nothing conflicted.
+     */
+    static boolean merge(byte[] base, byte[] ours, byte[] theirs, OutputStream out)
+            throws IOException {
+        List<String> baseLines = Diff.lines(base);
+        List<String> ourLines = Diff.lines(ours);
+        List<String> theirLines = Diff.lines(theirs);
+        int[][] ids = Diff.number(List.of(baseLines, ourLines, theirLines));
+        int[] toOurs = Diff.match(ids[0], ids[1]);
+        int[] toTheirs = Diff.match(ids[0], ids[2]);
+        boolean clean = true;
+        int o = 0;
+        int a = 0;
+        int b = 0;
+        while (o < baseLines.size() || a < ourLines.size() || b < theirLines.size()) {
+            if (o < baseLines.size() && toOurs[o] == a && toTheirs[o] == b) {
+                write(out, baseLines, o, o + 1);
+                o += 1;
+                a += 1;
+                b += 1;
+                continue;
+            }
+            int next = o;
+            while (next < baseLines.size() && (toOurs[next] < 0 || toTheirs[next] < 0)) {
+                next += 1;
+            }
+            int aEnd = next < baseLines.size() ? toOurs[next] : ourLines.size();
+            int bEnd = next < baseLines.size() ? toTheirs[next] : theirLines.size();
+            boolean oursChanged = !same(ids[1], a, aEnd, ids[0], o, next);
+            boolean theirsChanged = !same(ids[2], b, bEnd, ids[0], o, next);
+            if (!theirsChanged || same(ids[1], a, aEnd, ids[2], b, bEnd)) {
+                write(out, ourLines, a, aEnd);
+            } else if (!oursChanged) {
+                write(out, theirLines, b, bEnd);
+            } else {
+                out.write(OURS_MARKER);
+                writeTerminated(out, ourLines, a, aEnd);
+                out.write(SEPARATOR);
+                writeTerminated(out, theirLines, b, bEnd);
+                out.write(THEIRS_MARKER);
+                clean = false;
+            }
+            o = next;
+            a = aEnd;
+            b = bEnd;
+        }
+        return clean;
+    }
+
+    /**
+     * Writes OURS and THEIRS to OUT as a single conflict over the whole file,
+     * for when one side deleted a file the other changed.
+     */
+    static void conflict(byte[] ours, byte[] theirs, OutputStream out) throws IOException {
+        List<String> ourLines = Diff.lines(ours);
+        List<String> theirLines = Diff.lines(theirs);
+        out.write(OURS_MARKER);
+        writeTerminated(out, ourLines, 0, ourLines.size());
+        out.write(SEPARATOR);
+        writeTerminated(out, theirLines, 0, theirLines.size());
+        out.write(THEIRS_MARKER);
+    }
+
+    /** Returns true if X[XLO..XHI) and Y[YLO..YHI) hold the same lines. */
+    private static boolean same(int[] x, int xLo, int xHi, int[] y, int yLo, int yHi) {
+        if (xHi - xLo != yHi - yLo) {
+            return false;
+        }
+        for (int i = 0; i < xHi - xLo; i += 1) {
+            if (x[xLo + i] != y[yLo + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void write(OutputStream out, List<String> lines, int from, int to)
+            throws IOException {
+        for (int i = from; i < to; i += 1) {
+            out.write(lines.get(i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    /**
+     * Writes LINES[FROM..TO) to OUT, adding a newline if the last has none so
+     * that the following marker starts on its own line.
+     */
+    private static void writeTerminated(OutputStream out, List<String> lines, int from, int to)
+            throws IOException {
+        write(out, lines, from, to);
+        if (to > from && !lines.get(to - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+}
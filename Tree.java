@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+// One directory of a commit: the blob of each file in it and the tree of
+// each subdirectory, stored in the object store under the SHA-1 of its
+// encoding like any blob. A commit names only its root tree, so a commit
+// that changes one file writes new trees along that file's path and shares
+// every other subtree, by hash, with its parent, and two commits can be
+// compared by descending only into subtrees whose hashes differ.
+public class Tree {
+    private static final int FORMAT = 0x474c5401; // "GLT" version 1
+    // Number of decoded trees kept in memory; trees never change.
+    private static final int CACHE_SIZE = 4096;
+    private static final LinkedHashMap<String, Tree> CACHE =
+            new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Tree> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private final TreeMap<String, String> files = new TreeMap<>(); // <name, blob SHA1>
+    private final TreeMap<String, String> dirs = new TreeMap<>(); // <name, tree SHA1>
+
+    // Receives each file that differs between two trees, with its blob in
+    // each, null where the file is absent.
+    public interface Visitor {
+        void changed(String path, String before, String after);
+    }
+
+    // Returns the tree named HASH in OBJECTS, or an empty tree if HASH is
+    // null.
+    public static Tree read(ObjectStore objects, String hash) {
+        if (hash == null) {
+            return new Tree();
+        }
+        synchronized (CACHE) {
+            Tree cached = CACHE.get(hash);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Tree tree = decode(ByteBuffer.wrap(objects.get(hash)));
+        synchronized (CACHE) {
+            CACHE.put(hash, tree);
+        }
+        return tree;
+    }
+
+    // Stores the trees holding FILES, a map from paths with "/" separators
+    // to blobs, in OBJECTS and returns the hash of the root.
+    public static String build(ObjectStore objects, Map<String, String> files) {
+        return update(objects, null, files);
+    }
+
+    // Stores the trees for ROOT with CHANGES made, a map from paths to their
+    // new blobs or to null for files to remove, and returns the hash of the
+    // new root. Only trees on the path to a changed file are rewritten.
+    public static String update(ObjectStore objects, String root, Map<String, String> changes) {
+        return updated(objects, read(objects, root), changes).store(objects);
+    }
+
+    private static Tree updated(ObjectStore objects, Tree tree, Map<String, String> changes) {
+        Tree result = new Tree();
+        result.files.putAll(tree.files);
+        result.dirs.putAll(tree.dirs);
+        Map<String, Map<String, String>> byDir = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash < 0) {
+                if (change.getValue() == null) {
+                    result.files.remove(path);
+                } else {
+                    result.files.put(path, change.getValue());
+                }
+            } else {
+                byDir.computeIfAbsent(path.substring(0, slash), k -> new HashMap<>())
+                        .put(path.substring(slash + 1), change.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> dir : byDir.entrySet()) {
+            Tree sub = updated(objects, read(objects, result.dirs.get(dir.getKey())),
+                    dir.getValue());
+            if (sub.files.isEmpty() && sub.dirs.isEmpty()) {
+                result.dirs.remove(dir.getKey());
+            } else {
+                result.dirs.put(dir.getKey(), sub.store(objects));
+            }
+        }
+        return result;
+    }
+
+    // Returns the blob of the file PATH under ROOT, or null if there is none.
+    public static String lookup(ObjectStore objects, String root, String path) {
+        Tree tree = read(objects, root);
+        int slash = path.indexOf('/');
+        while (slash >= 0) {
+            String sub = tree.dirs.get(path.substring(0, slash));
+            if (sub == null) {
+                return null;
+            }
+            tree = read(objects, sub);
+            path = path.substring(slash + 1);
+            slash = path.indexOf('/');
+        }
+        return tree.files.get(path);
+    }
+
+    // Returns the blob of every file under ROOT, by path.
+    public static FileMap flatten(ObjectStore objects, String root) {
+        return flatten(objects, root, "", FileMap.EMPTY);
+    }
+
+    // Returns FILES with every file under ROOT added, each path starting
+    // with PREFIX.
+    private static FileMap flatten(ObjectStore objects, String root, String prefix,
+                                   FileMap files) {
+        Tree tree = read(objects, root);
+        for (Map.Entry<String, String> file : tree.files.entrySet()) {
+            files = files.plus(prefix + file.getKey(), file.getValue());
+        }
+        for (Map.Entry<String, String> dir : tree.dirs.entrySet()) {
+            files = flatten(objects, dir.getValue(), prefix + dir.getKey() + "/", files);
+        }
+        return files;
+    }
+
+    // Reports to VISITOR, directory by directory, each file whose blob differs
+    // between the trees BEFORE and AFTER, either of which may be null for an
+    // empty tree. Subtrees with equal hashes are not read.
+    public static void diff(ObjectStore objects, String before, String after, Visitor visitor) {
+        diff(objects, before, after, "", visitor);
+    }
+
+    private static void diff(ObjectStore objects, String before, String after, String prefix,
+                             Visitor visitor) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        Tree a = read(objects, before);
+        Tree b = read(objects, after);
+        TreeSet<String> names = new TreeSet<>(a.files.keySet());
+        names.addAll(b.files.keySet());
+        for (String name : names) {
+            String x = a.files.get(name);
+            String y = b.files.get(name);
+            if (!Objects.equals(x, y)) {
+                visitor.changed(prefix + name, x, y);
+            }
+        }
+        names = new TreeSet<>(a.dirs.keySet());
+        names.addAll(b.dirs.keySet());
+        for (String name : names) {
+            diff(objects, a.dirs.get(name), b.dirs.get(name), prefix + name + "/", visitor);
+        }
+    }
+
+    // Passes ROOT and, while VISIT returns true for a tree, every blob and
+    // subtree below it to VISIT, so that a caller remembering what it has
+    // seen skips shared subtrees.
+    public static void walk(ObjectStore objects, String root, Predicate<String> visit) {
+        if (!visit.test(root)) {
+            return;
+        }
+        Tree tree = read(objects, root);
+        for (String blob : tree.files.values()) {
+            visit.test(blob);
+        }
+        for (String dir : tree.dirs.values()) {
+            walk(objects, dir, visit);
+        }
+    }
+
+    // Stores this tree in OBJECTS and returns its hash.
+    private String store(ObjectStore objects) {
+        byte[] bytes = encode();
+        String hash = Utils.sha1(bytes);
+        objects.put(hash, bytes);
+        synchronized (CACHE) {
+            CACHE.put(hash, this);
+        }
+        return hash;
+    }
+
+    // Files and then subdirectories, each in name order, so that equal trees
+    // hash equally.
+    private byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + 64 * (files.size()
+                + dirs.size()));
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(FORMAT);
+            for (TreeMap<String, String> entries : List.of(files, dirs)) {
+                out.writeInt(entries.size());
+                for (Map.Entry<String, String> entry : entries.entrySet()) {
+                    SerializeUtils.writeString(out, entry.getKey());
+                    SerializeUtils.writeHash(out, entry.getValue());
+                }
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Internal error encoding tree.");
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Tree decode(ByteBuffer in) {
+        if (in.getInt() != FORMAT) {
+            throw new IllegalArgumentException("Unknown tree format.");
+        }
+        Tree tree = new Tree();
+        for (TreeMap<String, String> entries : List.of(tree.files, tree.dirs)) {
+            for (int count = in.getInt(); count > 0; count -= 1) {
+                String name = SerializeUtils.readString(in);
+                entries.put(name, SerializeUtils.readHash(in));
+            }
+        }
+        return tree;
+    }
+}
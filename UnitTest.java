@@ -3,6 +3,17 @@ package gitlet;
 import ucb.junit.textui;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 /**
@@ -33,6 +44,552 @@ public class UnitTest {
         Main.main(args3);
     }
 
+    /**
+     * Diff.match keeps as many lines as a longest common subsequence, so the
+     * edit script it gives is a shortest one, and keeps only equal lines, in
+     * order.  Given a limit on the length of the script, it gives up exactly
+     * when the shortest one is longer.
+     */
+    @Test
+    public void diffIsMinimalTest() {
+        Random random = new Random(61);
+        for (int trial = 0; trial < 500; trial += 1) {
+            int[] a = randomLines(random, random.nextInt(30));
+            int[] b = randomLines(random, random.nextInt(30));
+            int[] match = Diff.match(a, b);
+            int kept = 0;
+            int last = -1;
+            for (int i = 0; i < a.length; i += 1) {
+                if (match[i] >= 0) {
+                    assertTrue(match[i] > last);
+                    assertEquals(a[i], b[match[i]]);
+                    last = match[i];
+                    kept += 1;
+                }
+            }
+            assertEquals(lcs(a, b), kept);
+            int cost = a.length + b.length - 2 * kept;
+            int limit = random.nextInt(40);
+            int[] capped = Diff.match(a, b, limit);
+            assertEquals(cost > limit, capped == null);
+            if (capped != null) {
+                assertTrue(Arrays.equals(match, capped));
+            }
+        }
+    }
+
+    /**
+     * A unified diff of files more than Diff.MAX_COST lines apart is one
+     * hunk replacing every line.
+     */
+    @Test
+    public void diffCostCutoffTest() throws IOException {
+        StringBuilder before = new StringBuilder();
+        StringBuilder after = new StringBuilder();
+        // Every other line changes, for a shortest script of MAX_COST + 2.
+        int lines = Diff.MAX_COST + 2;
+        for (int i = 0; i < lines; i += 1) {
+            before.append("old ").append(i).append('\n');
+            after.append(i % 2 == 0 ? "new " : "old ").append(i).append('\n');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Diff.unified("f", ByteBuffer.wrap(bytes(before.toString())),
+                ByteBuffer.wrap(bytes(after.toString())), out);
+        String[] diff = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals("@@ -1," + lines + " +1," + lines + " @@", diff[3]);
+        assertEquals(4 + 2 * lines, diff.length);
+        assertEquals("-old 1", diff[5]);
+        assertEquals("+old 1", diff[4 + lines + 1]);
+    }
+
+    /** Edits to different lines of a file merge cleanly. */
+    @Test
+    public void mergeCleanTest() throws IOException {
+        String base = "a\nb\nc\nd\ne\n";
+        String ours = "A\nb\nc\nd\ne\n";
+        String theirs = "a\nb\nc\nd\nE\nf\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ThreeWayMerge.merge(bytes(base), bytes(ours), bytes(theirs), out));
+        assertEquals("A\nb\nc\nd\nE\nf\n", out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        assertTrue(ThreeWayMerge.merge(bytes(base), bytes(ours), bytes(ours), out));
+        assertEquals(ours, out.toString(StandardCharsets.UTF_8));
+    }
+
+    /** Edits to the same lines conflict, with markers around only those. */
+    @Test
+    public void mergeConflictTest() throws IOException {
+        String base = "a\nb\nc\n";
+        String ours = "a\nB\nc\n";
+        String theirs = "a\nX\nc\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(ThreeWayMerge.merge(bytes(base), bytes(ours), bytes(theirs), out));
+        assertEquals("a\n<<<<<<< HEAD\nB\n=======\nX\n>>>>>>>\nc\n",
+                out.toString(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A delta rebuilds its target from its base, whether the target is an
+     * edit of the base, shares nothing with it, or either is empty, and an
+     * edit of a large base costs far less than the target.
+     */
+    @Test
+    public void deltaRoundTripTest() {
+        Random random = new Random(10);
+        for (int trial = 0; trial < 200; trial += 1) {
+            byte[] base = new byte[random.nextInt(5000)];
+            random.nextBytes(base);
+            byte[] target = edit(random, base);
+            assertArrayEquals(target, Delta.apply(base, Delta.compute(base, target)));
+        }
+        byte[] some = bytes("some contents that are long enough to hold blocks\n");
+        assertArrayEquals(some, Delta.apply(new byte[0], Delta.compute(new byte[0], some)));
+        assertArrayEquals(new byte[0], Delta.apply(some, Delta.compute(some, new byte[0])));
+
+        byte[] base = new byte[100000];
+        random.nextBytes(base);
+        byte[] target = base.clone();
+        target[50000] += 1;
+        assertTrue(Delta.compute(base, target).length < 1000);
+    }
+
+    /**
+     * A FileMap holds what a HashMap given the same puts and removes holds,
+     * including keys whose hashes collide, and diff reports exactly the
+     * keys whose values differ, whether or not the two maps share nodes.
+     */
+    @Test
+    public void fileMapTest() {
+        // "Aa" and "BB" have equal hash codes, so these all collide.
+        String[] colliding = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        Random random = new Random(22);
+        for (int trial = 0; trial < 300; trial += 1) {
+            int keys = 1 + random.nextInt(trial % 10 == 0 ? 3000 : 100);
+            HashMap<String, String> expected = new HashMap<>();
+            FileMap map = FileMap.EMPTY;
+            for (int i = 0; i < keys; i += 1) {
+                String key = random.nextInt(5) == 0 ? colliding[random.nextInt(4)]
+                        : "f" + random.nextInt(2 * keys);
+                String value = "v" + random.nextInt(3);
+                expected.put(key, value);
+                map = map.plus(key, value);
+            }
+            HashMap<String, String> before = new HashMap<>(expected);
+            FileMap from = random.nextBoolean() ? map : FileMap.of(before);
+            for (int i = random.nextInt(20); i > 0; i -= 1) {
+                String key = random.nextInt(4) == 0 ? colliding[random.nextInt(4)]
+                        : "f" + random.nextInt(2 * keys);
+                if (random.nextBoolean()) {
+                    expected.remove(key);
+                    map = map.minus(key);
+                } else {
+                    expected.put(key, "v" + random.nextInt(3));
+                    map = map.plus(key, expected.get(key));
+                }
+            }
+            assertEquals(expected.size(), map.size());
+            for (String key : expected.keySet()) {
+                assertEquals(expected.get(key), map.get(key));
+            }
+            HashMap<String, String> seen = new HashMap<>();
+            map.forEach(seen::put);
+            assertEquals(expected, seen);
+
+            HashMap<String, String> changes = new HashMap<>();
+            for (String key : before.keySet()) {
+                if (!before.get(key).equals(expected.get(key))) {
+                    changes.put(key, before.get(key) + " " + expected.get(key));
+                }
+            }
+            for (String key : expected.keySet()) {
+                if (!before.containsKey(key)) {
+                    changes.put(key, null + " " + expected.get(key));
+                }
+            }
+            HashMap<String, String> reported = new HashMap<>();
+            from.diff(map, (path, x, y) -> assertNull(reported.put(path, x + " " + y)));
+            assertEquals(changes, reported);
+        }
+    }
+
+    /**
+     * Chunks stay within their size bounds and cover the file, and bytes
+     * inserted in the middle change only the chunks around them: those
+     * before are cut as before, and the cuts after soon fall back into step.
+     */
+    @Test
+    public void chunkBoundariesTest() {
+        Random random = new Random(23);
+        byte[] file = new byte[4 << 20];
+        random.nextBytes(file);
+        List<String> before = chunks(file);
+
+        byte[] insert = new byte[100];
+        random.nextBytes(insert);
+        int at = file.length / 2;
+        byte[] edited = new byte[file.length + insert.length];
+        System.arraycopy(file, 0, edited, 0, at);
+        System.arraycopy(insert, 0, edited, at, insert.length);
+        System.arraycopy(file, at, edited, at + insert.length, file.length - at);
+        List<String> after = chunks(edited);
+
+        int same = 0;
+        while (before.get(same).equals(after.get(same))) {
+            same += 1;
+        }
+        int sameAtEnd = 0;
+        while (before.get(before.size() - 1 - sameAtEnd)
+                .equals(after.get(after.size() - 1 - sameAtEnd))) {
+            sameAtEnd += 1;
+        }
+        assertTrue(same + sameAtEnd >= before.size() - 3);
+        assertTrue(same + sameAtEnd >= after.size() - 3);
+    }
+
+    /**
+     * The stat cache answers for a file whose size and times are unchanged
+     * since it was saved, but not once the file changes, nor for a file
+     * modified so near the save that a later write could go unnoticed. A
+     * torn cache is read as empty.
+     */
+    @Test
+    public void statCacheTest() {
+        new File(".gitlet/staging").mkdirs();
+        File index = new File(".gitlet/staging/index");
+        index.delete();
+        File file = new File("stat-test.txt");
+        long past = System.currentTimeMillis() - 10000;
+
+        Utils.writeContents(file, bytes("one"));
+        file.setLastModified(past);
+        StatCache cache = new StatCache();
+        assertEquals(Utils.sha1(bytes("one")), cache.hash(file.getName(), file));
+        cache.save();
+        assertEquals(Utils.sha1(bytes("one")), new StatCache().lookup(file.getName(), file));
+
+        Utils.writeContents(file, bytes("two!"));
+        file.setLastModified(past);
+        assertNull(new StatCache().lookup(file.getName(), file));
+
+        cache = new StatCache();
+        Utils.writeContents(file, bytes("three"));
+        cache.record(file.getName(), file, Utils.sha1(bytes("three")));
+        cache.save();
+        assertNull(new StatCache().lookup(file.getName(), file));
+
+        byte[] saved = Utils.readContents(index);
+        Utils.writeContents(index, Arrays.copyOf(saved, saved.length - 5));
+        cache = new StatCache();
+        assertNull(cache.lookup(file.getName(), file));
+        cache.save();
+        // The torn cache is written back whole, holding no entries.
+        assertEquals(16, index.length());
+
+        file.delete();
+        index.delete();
+    }
+
+    /**
+     * A command that dies after its journal record reaches the disk, but
+     * before its files are replaced, is finished by recover(), or undone if
+     * a blob it added was lost.
+     */
+    @Test
+    public void journalRecoverTest() {
+        new File(".gitlet/blobs").mkdirs();
+        File ref = new File(".gitlet/journal-test.txt");
+        Utils.writeContents(ref, bytes("old"));
+        // A directory where each file is written before it is renamed into
+        // place stops the command just after its record is forced.
+        File blocker = new File(".gitlet/journal-apply.tmp");
+
+        blocker.mkdir();
+        Journal.write(ref.getPath(), bytes("new"));
+        assertCrashes();
+        blocker.delete();
+        assertEquals("old", new String(Utils.readContents(ref), StandardCharsets.UTF_8));
+        Journal.recover(new ObjectStore(), () -> { });
+        assertEquals("new", new String(Utils.readContents(ref), StandardCharsets.UTF_8));
+
+        blocker.mkdir();
+        Journal.write(ref.getPath(), bytes("newer"));
+        Journal.recordBlob(Utils.sha1("lost"));
+        assertCrashes();
+        blocker.delete();
+        Utils.writeContents(ref, bytes("torn"));
+        Journal.recover(new ObjectStore(), () -> { });
+        assertEquals("new", new String(Utils.readContents(ref), StandardCharsets.UTF_8));
+        assertFalse(new File(".gitlet/journal").exists());
+        ref.delete();
+    }
+
+    /**
+     * Checks that splitPoint finds the nearest common ancestor on a line of
+     * commits, through the second parent of a merge, and across a
+     * criss-cross merge, where it must pick the common ancestor of highest
+     * generation.
+     */
+    @Test
+    public void splitPointTest() {
+        new File(".gitlet/commits").mkdirs();
+        new File(".gitlet/commit-graph").delete();
+        CommitGraph graph = new CommitGraph();
+        String empty = Tree.build(new ObjectStore(), new HashMap<>());
+        String root = commit(graph, empty, "root", null, null);
+
+        String b = commit(graph, empty, "b", root, null);
+        String c = commit(graph, empty, "c", b, null);
+        assertEquals(b, graph.splitPoint(c, b));
+        assertEquals(b, graph.splitPoint(b, c));
+        assertEquals(c, graph.splitPoint(c, c));
+
+        String m1 = commit(graph, empty, "m1", root, null);
+        String x1 = commit(graph, empty, "x1", root, null);
+        String x2 = commit(graph, empty, "x2", x1, null);
+        String merged = commit(graph, empty, "merge x1", m1, x1);
+        assertEquals(x1, graph.splitPoint(merged, x2));
+        assertEquals(x1, graph.splitPoint(x2, merged));
+
+        // The common ancestors of the two tips are a1 and b1, and a1 is a
+        // generation further from the root.
+        String a0 = commit(graph, empty, "a0", root, null);
+        String a1 = commit(graph, empty, "a1", a0, null);
+        String b1 = commit(graph, empty, "b1", root, null);
+        String a2 = commit(graph, empty, "merge b1", a1, b1);
+        String b2 = commit(graph, empty, "merge a1", b1, a1);
+        String a3 = commit(graph, empty, "a3", a2, null);
+        String b3 = commit(graph, empty, "b3", b2, null);
+        assertEquals(a1, graph.splitPoint(a3, b3));
+        assertEquals(a1, graph.splitPoint(b3, a3));
+        new File(".gitlet/commit-graph").delete();
+    }
+
+    /**
+     * Abbreviated ids expand to every id they begin, whether it is in the
+     * sorted table or only in the tail not yet merged into it, and a prefix
+     * of a single digit spans the sixteen fan-out entries it begins.
+     */
+    @Test
+    public void commitIdsTest() {
+        File commits = new File(".gitlet/commits");
+        commits.mkdirs();
+        new File(".gitlet/commit-ids").delete();
+        new File(".gitlet/commit-ids.new").delete();
+        String[] tabled = {id("00"), id("a0"), id("ab12"), id("ab34"), id("ff")};
+        for (String id : tabled) {
+            Utils.writeContents(new File(commits, id + ".txt"), new byte[0]);
+        }
+        CommitIds ids = new CommitIds();
+        String[] tailed = {id("ab56"), id("c7")};
+        for (String id : tailed) {
+            ids.add(id);
+        }
+        assertTrue(new File(".gitlet/commit-ids.new").exists());
+
+        for (CommitIds table : new CommitIds[] {ids, new CommitIds()}) {
+            assertEquals(List.of(tabled[2]), table.matches("ab1", 2));
+            assertEquals(List.of(tabled[2]), table.matches(tabled[2].toUpperCase(), 2));
+            assertEquals(2, table.matches("ab", 2).size());
+            assertEquals(List.of(tabled[2], tabled[3], tailed[0]), table.matches("ab", 10));
+            assertEquals(List.of(tabled[1], tabled[2], tabled[3], tailed[0]),
+                    table.matches("a", 10));
+            assertEquals(List.of(tabled[0]), table.matches("0", 10));
+            assertEquals(List.of(tabled[4]), table.matches("f", 10));
+            assertEquals(List.of(tailed[0]), table.matches("ab5", 2));
+            assertEquals(List.of(tailed[1]), table.matches("c", 2));
+            assertTrue(table.matches("b", 10).isEmpty());
+            assertTrue(table.matches("ab7", 10).isEmpty());
+            assertTrue(table.matches("xyz", 10).isEmpty());
+        }
+        for (String id : tabled) {
+            new File(commits, id + ".txt").delete();
+        }
+        new File(".gitlet/commit-ids").delete();
+        new File(".gitlet/commit-ids.new").delete();
+    }
+
+    /**
+     * gc deletes a commit no branch reaches and the blob only it held, and
+     * keeps what a branch, the pending merge or the stage reaches.
+     */
+    @Test
+    public void gcTest() {
+        delete(new File(".gitlet"));
+        run("init");
+        String[][] files = {{"gc-master.txt", "master"}, {"gc-side.txt", "side"},
+            {"gc-dropped.txt", "dropped"}, {"gc-merging.txt", "merging"},
+            {"gc-staged.txt", "staged"}};
+        commitOn("side", files[1]);
+        commitOn("dropped", files[2]);
+        commitOn("merging", files[3]);
+        String side = branchHead("side");
+        String dropped = branchHead("dropped");
+        String merging = branchHead("merging");
+        run("rm-branch", "dropped");
+        run("rm-branch", "merging");
+        Utils.writeContents(new File(".gitlet/merge-head.txt"), bytes(merging));
+        Utils.writeContents(new File(files[0][0]), bytes(files[0][1]));
+        run("add", files[0][0]);
+        run("commit", "master");
+        String master = branchHead("master");
+        Utils.writeContents(new File(files[4][0]), bytes(files[4][1]));
+        run("add", files[4][0]);
+        // Everything is older than the grace period.
+        age(new File(".gitlet"));
+
+        run("gc");
+        ObjectStore objects = new ObjectStore();
+        for (String commit : new String[] {master, side, merging}) {
+            assertTrue(new File(".gitlet/commits/" + commit + ".txt").exists());
+        }
+        assertFalse(new File(".gitlet/commits/" + dropped + ".txt").exists());
+        for (String[] file : files) {
+            assertEquals(file != files[2], objects.contains(Utils.sha1(bytes(file[1]))));
+            new File(file[0]).delete();
+        }
+        delete(new File(".gitlet"));
+    }
+
+    /**
+     * Commits FILE, a name and its contents, on a new branch BRANCH made from
+     * master, and checks master out again.
+     */
+    private static void commitOn(String branch, String[] file) {
+        run("branch", branch);
+        run("checkout", branch);
+        Utils.writeContents(new File(file[0]), bytes(file[1]));
+        run("add", file[0]);
+        run("commit", branch);
+        run("checkout", "master");
+    }
+
+    /** Runs the gitlet command ARGS in the current directory. */
+    private static void run(String... args) {
+        Main.run(new Repo(), args);
+    }
+
+    /** Returns the commit at the head of BRANCH. */
+    private static String branchHead(String branch) {
+        return new String(Utils.readContents(new File(".gitlet/branches/" + branch + ".txt")),
+                StandardCharsets.UTF_8);
+    }
+
+    /** Sets the modification time of FILE and all it holds to the epoch. */
+    private static void age(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                age(child);
+            }
+        }
+        file.setLastModified(0);
+    }
+
+    /** Deletes FILE and all it holds. */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /** Returns the commit id that is PREFIX followed by zeros. */
+    private static String id(String prefix) {
+        return prefix + "0".repeat(40 - prefix.length());
+    }
+
+    /**
+     * Appends to GRAPH a commit of TREE with message MSG and the given
+     * parents, and returns its hash.
+     */
+    private static String commit(CommitGraph graph, String tree, String msg,
+                                 String parent, String secondParent) {
+        Commit commit = new Commit(msg, tree, parent, secondParent);
+        graph.append(commit);
+        return commit.getOwnHash();
+    }
+
+    /** Asserts that committing the journal fails. */
+    private static void assertCrashes() {
+        try {
+            Journal.commit();
+            fail("The commit should not have been applied.");
+        } catch (IllegalArgumentException excp) {
+            assertTrue(new File(".gitlet/journal").exists());
+        }
+    }
+
+    /** Returns the SHA1 of each chunk Chunker cuts CONTENTS into. */
+    private static List<String> chunks(byte[] contents) {
+        List<String> result = new ArrayList<>();
+        for (int off = 0; off < contents.length;) {
+            int len = Chunker.cut(contents, off, contents.length - off);
+            assertTrue(len > 0 && len <= Chunker.MAX_SIZE);
+            assertTrue(len >= Chunker.MIN_SIZE || off + len == contents.length);
+            result.add(Utils.sha1(Arrays.copyOfRange(contents, off, off + len)));
+            off += len;
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of BASE with a few runs of random bytes inserted,
+     * deleted or overwritten.
+     */
+    private static byte[] edit(Random random, byte[] base) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        while (pos < base.length) {
+            int run = Math.min(base.length - pos, random.nextInt(1000));
+            out.write(base, pos, run);
+            pos += run;
+            byte[] insert = new byte[random.nextInt(50)];
+            random.nextBytes(insert);
+            switch (random.nextInt(3)) {
+                case 0:
+                    out.write(insert, 0, insert.length);
+                    break;
+                case 1:
+                    pos += insert.length;
+                    break;
+                default:
+                    out.write(insert, 0, insert.length);
+                    pos += insert.length;
+                    break;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns LENGTH lines drawn from a few values, so that many repeat. */
+    private static int[] randomLines(Random random, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = random.nextInt(4);
+        }
+        return result;
+    }
+
+    /** Returns the length of a longest common subsequence of A and B. */
+    private static int lcs(int[] a, int[] b) {
+        int[][] table = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i += 1) {
+            for (int j = 1; j <= b.length; j += 1) {
+                table[i][j] = a[i - 1] == b[j - 1] ? table[i - 1][j - 1] + 1
+                        : Math.max(table[i - 1][j], table[i][j - 1]);
+            }
+        }
+        return table[a.length][b.length];
+    }
+
+    private static byte[] bytes(String contents) {
+        return contents.getBytes(StandardCharsets.UTF_8);
+    }
+
 }
 
 
@@ -29,6 +29,7 @@ class Utils {
     static String sha1(Object... vals) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
+            Metrics.count("sha1 calls", 1);
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
@@ -56,6 +57,34 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /* HEX ENCODING */
+
+    /**
+     * Returns the raw bytes denoted by the hexadecimal string HEX, which
+     * must have an even number of digits.
+     */
+    static byte[] hexToBytes(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lower-case hexadecimal representation of the LEN bytes
+     * of BYTES starting at OFFSET.
+     */
+    static String bytesToHex(byte[] bytes, int offset, int len) {
+        char[] result = new char[2 * len];
+        for (int i = 0; i < len; i += 1) {
+            int b = bytes[offset + i] & 0xff;
+            result[2 * i] = Character.forDigit(b >>> 4, 16);
+            result[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /**
@@ -97,7 +126,9 @@ class Utils {
             throw new IllegalArgumentException("must be a normal file");
         }
         try {
-            return Files.readAllBytes(file.toPath());
+            byte[] contents = Files.readAllBytes(file.toPath());
+            Metrics.count("bytes read", contents.length);
+            return contents;
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -114,6 +145,7 @@ class Utils {
                         new IllegalArgumentException("cannot overwrite directory");
             }
             Files.write(file.toPath(), bytes);
+            Metrics.count("bytes written", bytes.length);
         } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
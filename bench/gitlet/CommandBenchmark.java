@@ -0,0 +1,163 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the core commands on synthetic repositories (see
+ * SyntheticRepo).  Gitlet resolves every path against the working
+ * directory, so run them from an empty scratch directory, for example
+ *
+ *     mkdir /tmp/gitlet-bench && cd /tmp/gitlet-bench
+ *     java -cp CLASSPATH org.openjdk.jmh.Main gitlet.CommandBenchmark -prof gc
+ *
+ * where "-prof gc" adds the allocation rate of each benchmark to its
+ * throughput.  The shape of the repository is set by the fileCount,
+ * fileSize, commitDepth and branchFanout parameters ("-p fileCount=10000");
+ * fileCount must exceed branchFanout.  Each benchmark commits the journal
+ * as Main does at the end of a command, so the fsync is part of its cost.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class CommandBenchmark {
+
+    /** A generated repository, shared by every benchmark in a trial. */
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({"100", "1000"})
+        int fileCount;
+        @Param({"4096"})
+        int fileSize;
+        @Param({"100"})
+        int commitDepth;
+        @Param({"4"})
+        int branchFanout;
+
+        SyntheticRepo synthetic;
+        Repo repo;
+        int edits;
+        private PrintStream console;
+
+        @Setup(Level.Trial)
+        public void build() throws IOException {
+            synthetic = new SyntheticRepo(fileCount, fileSize, commitDepth, branchFanout);
+            repo = new Repo();
+            console = System.out;
+            System.setOut(SyntheticRepo.quiet());
+        }
+
+        @TearDown(Level.Trial)
+        public void restoreOutput() {
+            System.setOut(console);
+        }
+    }
+
+    /** A file freshly rewritten in the working directory but not staged. */
+    @State(Scope.Thread)
+    public static class Edited {
+        String fileName;
+
+        @Setup(Level.Invocation)
+        public void edit(Fixture fixture) throws IOException {
+            fixture.edits += 1;
+            int index = fixture.edits % fixture.fileCount;
+            fixture.synthetic.write(index);
+            fileName = SyntheticRepo.fileName(index);
+        }
+    }
+
+    /** A staged change ready to be committed. */
+    @State(Scope.Thread)
+    public static class Staged {
+        @Setup(Level.Invocation)
+        public void stage(Fixture fixture) throws IOException {
+            fixture.edits += 1;
+            fixture.synthetic.edit(fixture.repo, fixture.edits % fixture.fileCount);
+        }
+    }
+
+    /** Master moved back to its tip from before any merge. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        @Setup(Level.Invocation)
+        public void rewind(Fixture fixture) {
+            fixture.repo.reset(fixture.synthetic.masterTip);
+            Journal.commit();
+        }
+    }
+
+    /** Flips between two targets on each call. */
+    @State(Scope.Thread)
+    public static class Toggle {
+        boolean flip;
+    }
+
+    @Benchmark
+    public void add(Fixture fixture, Edited edited) {
+        fixture.repo.add(edited.fileName);
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void commit(Fixture fixture, Staged staged) {
+        fixture.repo.commitment("benchmark " + fixture.edits);
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void log(Fixture fixture) {
+        fixture.repo.log();
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void find(Fixture fixture) {
+        fixture.repo.find("commit 1");
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void status(Fixture fixture) {
+        fixture.repo.status();
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void checkout(Fixture fixture, Toggle toggle) {
+        toggle.flip = !toggle.flip;
+        fixture.repo.checkout("checkout", toggle.flip ? "b0" : "master");
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void reset(Fixture fixture, Toggle toggle) {
+        toggle.flip = !toggle.flip;
+        fixture.repo.reset(toggle.flip ? fixture.synthetic.firstCommit
+                : fixture.synthetic.masterTip);
+        Journal.commit();
+    }
+
+    @Benchmark
+    public void merge(Fixture fixture, Unmerged unmerged) {
+        fixture.repo.merge("b0");
+        Journal.commit();
+    }
+}
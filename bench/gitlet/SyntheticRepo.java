@@ -0,0 +1,144 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Builds a repository of a chosen shape in the current directory for the
+ * benchmarks.  The history is a chain of COMMITDEPTH commits on master, each
+ * editing one file, followed by FANOUT branches b0, b1, ... that each edit a
+ * different file, and one more commit on master, so every branch merges
+ * cleanly into master.  Contents come from a fixed seed, so equal shapes
+ * give equal repositories.
+ */
+class SyntheticRepo {
+
+    private static final long SEED = 61;
+
+    /** Commit id at the tip of master once the repository is built. */
+    final String masterTip;
+    /** Commit id of the first commit, holding every file. */
+    final String firstCommit;
+    private final int fileCount;
+    private final int fileSize;
+    private final Random random = new Random(SEED);
+
+    /**
+     * Replaces any repository left in the current directory by an earlier
+     * run with one of FILECOUNT files of about FILESIZE bytes, COMMITDEPTH
+     * commits deep with FANOUT branches.
+     */
+    SyntheticRepo(int fileCount, int fileSize, int commitDepth, int fanout) throws IOException {
+        this.fileCount = fileCount;
+        this.fileSize = fileSize;
+        clean();
+        PrintStream console = System.out;
+        System.setOut(quiet());
+        try {
+            new Repo().init();
+            Journal.commit();
+            Repo repo = new Repo();
+            String[] names = new String[fileCount];
+            for (int i = 0; i < fileCount; i += 1) {
+                names[i] = fileName(i);
+                write(i);
+            }
+            repo.add(names);
+            repo.commitment("commit 0");
+            Journal.commit();
+            firstCommit = head("master");
+            for (int depth = 1; depth < commitDepth; depth += 1) {
+                edit(repo, depth % fileCount);
+                repo.commitment("commit " + depth);
+                Journal.commit();
+            }
+            for (int b = 0; b < fanout; b += 1) {
+                repo.branch("b" + b);
+                Journal.commit();
+            }
+            for (int b = 0; b < fanout; b += 1) {
+                repo.checkout("checkout", "b" + b);
+                Journal.commit();
+                edit(repo, (commitDepth + b) % fileCount);
+                repo.commitment("branch b" + b);
+                Journal.commit();
+            }
+            repo.checkout("checkout", "master");
+            edit(repo, (commitDepth + fanout) % fileCount);
+            repo.commitment("commit " + commitDepth);
+            Journal.commit();
+            masterTip = head("master");
+        } finally {
+            System.setOut(console);
+        }
+    }
+
+    /** Rewrites file number INDEX with new contents and stages it in REPO. */
+    void edit(Repo repo, int index) throws IOException {
+        write(index);
+        repo.add(fileName(index));
+        Journal.commit();
+    }
+
+    /** Fills file number INDEX with FILESIZE bytes of random lines. */
+    void write(int index) throws IOException {
+        StringBuilder contents = new StringBuilder(fileSize + 80);
+        while (contents.length() < fileSize) {
+            contents.append("line ").append(random.nextLong()).append('\n');
+        }
+        Files.write(Paths.get(fileName(index)), contents.toString()
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the commit id at the head of BRANCH, read from the file
+     * directly so that no command's journal remembers having seen it.
+     */
+    static String head(String branch) throws IOException {
+        return new String(Files.readAllBytes(Paths.get(".gitlet/branches/" + branch + ".txt")),
+                StandardCharsets.UTF_8).trim();
+    }
+
+    /** Returns a stream that discards what the commands print. */
+    static PrintStream quiet() {
+        return new PrintStream(OutputStream.nullOutputStream());
+    }
+
+    static String fileName(int index) {
+        return String.format("f%06d.txt", index);
+    }
+
+    /**
+     * Deletes .gitlet and the generated files.  Refuses to touch a directory
+     * holding anything else, since relative paths mean the benchmarks must
+     * run from a scratch directory.
+     */
+    private void clean() throws IOException {
+        File[] entries = new File(".").listFiles();
+        for (File entry : entries == null ? new File[0] : entries) {
+            if (!entry.getName().equals(".gitlet")
+                    && !entry.getName().matches("f\\d{6}\\.txt")) {
+                throw new IllegalStateException("Run the benchmarks from an empty directory; "
+                        + "found " + entry.getName() + ".");
+            }
+        }
+        Path gitlet = Paths.get(".gitlet");
+        if (Files.exists(gitlet)) {
+            try (Stream<Path> walk = Files.walk(gitlet)) {
+                walk.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+        for (File entry : entries == null ? new File[0] : entries) {
+            entry.delete();
+        }
+    }
+}